@@ -0,0 +1,319 @@
+package com.sample.hrv;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.sample.hrv.event.SensorEventBus;
+import com.sample.hrv.sensor.BleSensor;
+import com.sample.hrv.sensor.BleSensors;
+import com.sample.hrv.transport.AndroidGattTransport;
+import com.sample.hrv.transport.GattTransport;
+
+/**
+ * Connection to one device, managed by {@link BleService}. Every connection has its own
+ * GATT callback, operation queue, sensor instances and event bus, so the callbacks of
+ * one device never wait for another.
+ *
+ * A connection that drops without being asked to is restored with the delays of a
+ * {@link ReconnectPolicy}, and the sensors that were enabled are enabled again. The
+ * sensors are told about the interruption, so their data continues with a gap rather
+ * than starting over.
+ */
+class BleConnection {
+    private final static String TAG = BleConnection.class.getSimpleName();
+
+    private static final int STATE_DISCONNECTED = 0;
+    private static final int STATE_CONNECTING = 1;
+    private static final int STATE_CONNECTED = 2;
+
+    private final BleService service;
+    private final String address;
+    // Sensors by service UUID, the key of every notification dispatched.
+    private final Map<UUID, BleSensor<?>> sensors = BleSensors.createSensors();
+    private final SensorEventBus eventBus = new SensorEventBus();
+    // Service UUIDs of the sensors to enable again after a reconnect.
+    private final Set<UUID> enabledSensors =
+            Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+    private final BluetoothGattExecutor executor;
+    private final AndroidGattTransport transport;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile int connectionState = STATE_DISCONNECTED;
+
+    // Reconnect state, guarded by this.
+    private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy(new Random());
+    private BluetoothAdapter adapter;
+    private boolean reconnect;
+    private ScheduledFuture<?> pendingReconnect;
+
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            reconnect();
+        }
+    };
+
+    /**
+     * @param scheduler runs the GATT timeouts and the reconnect attempts.
+     */
+    BleConnection(BleService service, String address, ScheduledExecutorService scheduler) {
+        this.service = service;
+        this.address = address;
+        this.scheduler = scheduler;
+        this.executor = new Callback(scheduler);
+        this.transport = new AndroidGattTransport(executor);
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    SensorEventBus getEventBus() {
+        return eventBus;
+    }
+
+    BleSensor<?> getSensor(UUID serviceUuid) {
+        return sensors.get(serviceUuid);
+    }
+
+    boolean isConnected() {
+        return connectionState == STATE_CONNECTED;
+    }
+
+    synchronized boolean connect(BluetoothAdapter adapter) {
+        this.adapter = adapter;
+        reconnect = true;
+        cancelReconnect();
+        reconnectPolicy.reset();
+
+        // Already connected or connecting, e.g. directly at startup.
+        if (transport.isOpen() && connectionState != STATE_DISCONNECTED)
+            return true;
+
+        // Previously connected device.  Try to reconnect.
+        if (transport.isOpen()) {
+            Log.d(TAG, "Trying to use an existing BluetoothGatt for connection to " + address);
+            if (transport.reconnect()) {
+                connectionState = STATE_CONNECTING;
+                return true;
+            }
+            return false;
+        }
+
+        final BluetoothDevice device = adapter.getRemoteDevice(address);
+        if (device == null) {
+            Log.w(TAG, "Device not found.  Unable to connect.");
+            return false;
+        }
+        // We want to directly connect to the device, so we are setting the autoConnect
+        // parameter to false.
+        Log.d(TAG, "Trying to create a new connection to " + address);
+        connectionState = STATE_CONNECTING;
+        return transport.connect(service, device, false);
+    }
+
+    synchronized void disconnect() {
+        reconnect = false;
+        cancelReconnect();
+        transport.disconnect();
+    }
+
+    synchronized void close() {
+        reconnect = false;
+        cancelReconnect();
+        connectionState = STATE_DISCONNECTED;
+        enabledSensors.clear();
+        transport.close();
+    }
+
+    // Enabling a sensor that is already enabled does nothing: after a reconnect the
+    // sensor was restored with its series, see restoreSensors(). Decided under the lock
+    // that connectionLost() holds, so a sensor is either continued or started over.
+    synchronized boolean enableSensor(BleSensor<?> sensor, boolean enabled) {
+        if (!transport.isOpen() || sensor == null)
+            return false;
+        if (enabled) {
+            if (!enabledSensors.add(sensor.getServiceId()))
+                return true;
+            sensor.reset();
+        } else {
+            enabledSensors.remove(sensor.getServiceId());
+        }
+        executor.enable(sensor, enabled);
+        executor.execute(transport);
+        return true;
+    }
+
+    boolean updateSensor(BleSensor<?> sensor) {
+        if (!transport.isOpen())
+            return false;
+        executor.update(sensor);
+        executor.execute(transport);
+        return true;
+    }
+
+    boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        if (!transport.isOpen())
+            return false;
+        executor.read(characteristic.getService().getUuid(), characteristic.getUuid());
+        executor.execute(transport);
+        return true;
+    }
+
+    List<BluetoothGattService> getServices() {
+        return transport.getServices();
+    }
+
+    // Called on the Bluetooth callback thread when the link dropped, also after
+    // disconnect(): the enabled sensors are restored with a gap whenever the link
+    // comes back, automatically or by a later connect().
+    private synchronized void connectionLost() {
+        for (UUID uuid : enabledSensors) {
+            final BleSensor<?> sensor = sensors.get(uuid);
+            if (sensor != null)
+                sensor.interrupt();
+        }
+        if (!reconnect || !transport.isOpen())
+            return;
+        // Start over with a fresh client, a stale one can keep failing with status 133.
+        transport.close();
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        final long delay = reconnectPolicy.nextDelayMillis();
+        Log.i(TAG, "Reconnecting to " + address + " in " + delay + " ms, attempt "
+                + reconnectPolicy.getAttempts());
+        connectionState = STATE_CONNECTING;
+        pendingReconnect = scheduler.schedule(reconnectTask, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void reconnect() {
+        pendingReconnect = null;
+        if (!reconnect || transport.isOpen())
+            return;
+        final BluetoothDevice device = adapter.getRemoteDevice(address);
+        // Direct connections time out while the device is out of range; auto connect
+        // waits for it in the background.
+        if (device == null || !transport.connect(service, device, reconnectPolicy.useAutoConnect()))
+            scheduleReconnect();
+    }
+
+    private void cancelReconnect() {
+        if (pendingReconnect != null) {
+            pendingReconnect.cancel(false);
+            pendingReconnect = null;
+        }
+    }
+
+    // Called on the Bluetooth callback thread once the services of a reconnect are known.
+    private synchronized void restoreSensors() {
+        if (enabledSensors.isEmpty())
+            return;
+        for (UUID uuid : enabledSensors) {
+            final BleSensor<?> sensor = sensors.get(uuid);
+            if (sensor != null)
+                executor.enable(sensor, true);
+        }
+        executor.execute(transport);
+    }
+
+    private void logOperationStats() {
+        Log.i(TAG, address + " GATT reads: "
+                + executor.getStats(BluetoothGattExecutor.ServiceAction.TYPE_READ));
+        Log.i(TAG, address + " GATT writes: "
+                + executor.getStats(BluetoothGattExecutor.ServiceAction.TYPE_WRITE));
+        Log.i(TAG, address + " GATT descriptor writes: "
+                + executor.getStats(BluetoothGattExecutor.ServiceAction.TYPE_WRITE_DESCRIPTOR));
+    }
+
+    // Implements callback methods for GATT events that the app cares about.
+    // For example, connection change and services discovered.
+    private class Callback extends BluetoothGattExecutor {
+
+        Callback(ScheduledExecutorService watchdog) {
+            super(watchdog);
+        }
+
+        @Override
+        public void onConnectionStateChange(GattTransport transport, int status, boolean connected) {
+            super.onConnectionStateChange(transport, status, connected);
+
+            if (connected) {
+                connectionState = STATE_CONNECTED;
+                synchronized (BleConnection.this) {
+                    reconnectPolicy.reset();
+                }
+                service.broadcastUpdate(BleService.ACTION_GATT_CONNECTED, address);
+                Log.i(TAG, "Connected to GATT server " + address);
+                // Attempts to discover services after successful connection.
+                Log.i(TAG, "Attempting to start service discovery:"
+                        + BleConnection.this.transport.discoverServices());
+            } else {
+                connectionState = STATE_DISCONNECTED;
+                Log.i(TAG, "Disconnected from GATT server " + address);
+                logOperationStats();
+                connectionLost();
+                service.broadcastUpdate(BleService.ACTION_GATT_DISCONNECTED, address);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(GattTransport transport, int status) {
+            super.onServicesDiscovered(transport, status);
+
+            if (status == GattTransport.STATUS_SUCCESS) {
+                restoreSensors();
+                service.broadcastUpdate(BleService.ACTION_GATT_SERVICES_DISCOVERED, address);
+            } else {
+                Log.w(TAG, "onServicesDiscovered received: " + status);
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(GattTransport transport, UUID serviceUuid,
+                                         UUID characteristicUuid, byte[] value, int status) {
+            super.onCharacteristicRead(transport, serviceUuid, characteristicUuid, value, status);
+
+            if (status == GattTransport.STATUS_SUCCESS) {
+                final BleSensor<?> sensor = sensors.get(serviceUuid);
+                if (sensor != null) {
+                    if (sensor.onCharacteristicRead(characteristicUuid, value)) {
+                        return;
+                    }
+                }
+
+                service.broadcastData(address, serviceUuid, characteristicUuid, value, sensor);
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(GattTransport transport, UUID serviceUuid,
+                                            UUID characteristicUuid, byte[] value) {
+            super.onCharacteristicChanged(transport, serviceUuid, characteristicUuid, value);
+
+            final BleSensor<?> sensor = sensors.get(serviceUuid);
+            if (sensor == null) {
+                service.broadcastData(address, serviceUuid, characteristicUuid, value, null);
+                return;
+            }
+            sensor.onCharacteristicChanged(value);
+            sensor.publish(eventBus, SystemClock.elapsedRealtime());
+        }
+    }
+}
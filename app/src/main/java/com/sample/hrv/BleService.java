@@ -18,12 +18,9 @@ package com.sample.hrv;
 
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
@@ -31,121 +28,77 @@ import android.os.IBinder;
 import android.util.Log;
 
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
+import com.sample.hrv.event.SensorEventBus;
 import com.sample.hrv.sensor.BleSensor;
-import com.sample.hrv.sensor.BleSensors;
 
 
 /**
- * Service for managing connection and data communication with a GATT server hosted on a
- * given Bluetooth LE device.
+ * Service for managing connections and data communication with GATT servers hosted on
+ * Bluetooth LE devices. Any number of devices can be connected at the same time, each
+ * addressed by its device address.
+ *
+ * Notifications of known sensors are published as typed events on the
+ * {@link #getEventBus(String) event bus} of the device. Intents are only broadcast for
+ * connection state changes and for data of characteristics without a sensor, e.g. single
+ * reads; they carry the device address in {@link #EXTRA_DEVICE_ADDRESS}.
  */
 public class BleService extends Service {
     private final static String TAG = BleService.class.getSimpleName();
 
     private BluetoothManager bluetoothManager;
     private BluetoothAdapter adapter;
-    private String deviceAddress;
-    private BluetoothGatt gatt;
-    private int connectionState = STATE_DISCONNECTED;
 
-    private static final int STATE_DISCONNECTED = 0;
-    private static final int STATE_CONNECTING = 1;
-    private static final int STATE_CONNECTED = 2;
+    private final ConcurrentHashMap<String, BleConnection> connections = new ConcurrentHashMap<>();
+
+    // Timeouts of the GATT operations of all connections.
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "GattWatchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
     private final static String INTENT_PREFIX = BleService.class.getPackage().getName();
     public final static String ACTION_GATT_CONNECTED = INTENT_PREFIX+".ACTION_GATT_CONNECTED";
     public final static String ACTION_GATT_DISCONNECTED = INTENT_PREFIX+".ACTION_GATT_DISCONNECTED";
     public final static String ACTION_GATT_SERVICES_DISCOVERED = INTENT_PREFIX+".ACTION_GATT_SERVICES_DISCOVERED";
     public final static String ACTION_DATA_AVAILABLE = INTENT_PREFIX+".ACTION_DATA_AVAILABLE";
+    public final static String EXTRA_DEVICE_ADDRESS = INTENT_PREFIX+".EXTRA_DEVICE_ADDRESS";
     public final static String EXTRA_SERVICE_UUID = INTENT_PREFIX+".EXTRA_SERVICE_UUID";
     public final static String EXTRA_CHARACTERISTIC_UUID = INTENT_PREFIX+".EXTRA_CHARACTERISTIC_UUI";
     public final static String EXTRA_DATA = INTENT_PREFIX+".EXTRA_DATA";
     public final static String EXTRA_TEXT = INTENT_PREFIX+".EXTRA_TEXT";
 
-    // Implements callback methods for GATT events that the app cares about.
-    // For example, connection change and services discovered.
-    private final BluetoothGattExecutor executor = new BluetoothGattExecutor() {
-
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            super.onConnectionStateChange(gatt, status, newState);
-
-            String intentAction;
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                intentAction = ACTION_GATT_CONNECTED;
-                connectionState = STATE_CONNECTED;
-                broadcastUpdate(intentAction);
-                Log.i(TAG, "Connected to GATT server.");
-                // Attempts to discover services after successful connection.
-                Log.i(TAG, "Attempting to start service discovery:" +
-                        BleService.this.gatt.discoverServices());
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                intentAction = ACTION_GATT_DISCONNECTED;
-                connectionState = STATE_DISCONNECTED;
-                Log.i(TAG, "Disconnected from GATT server.");
-                broadcastUpdate(intentAction);
-            }
-        }
-
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            super.onServicesDiscovered(gatt, status);
-
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
-            } else {
-                Log.w(TAG, "onServicesDiscovered received: " + status);
-            }
-        }
-
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic,
-                                         int status) {
-            super.onCharacteristicRead(gatt, characteristic, status);
-
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                final BleSensor<?> sensor = BleSensors.getSensor(characteristic.getService().getUuid().toString());
-                if (sensor != null) {
-                    if (sensor.onCharacteristicRead(characteristic)) {
-                        return;
-                    }
-                }
-
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
-            }
-        }
-
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            super.onCharacteristicChanged(gatt, characteristic);
-
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
-        }
-    };
-
-    private void broadcastUpdate(final String action) {
+    void broadcastUpdate(final String action, final String address) {
         final Intent intent = new Intent(action);
+        intent.putExtra(EXTRA_DEVICE_ADDRESS, address);
         sendBroadcast(intent);
     }
 
-    private void broadcastUpdate(final String action,
-                                 final BluetoothGattCharacteristic characteristic) {
-        final Intent intent = new Intent(action);
-        intent.putExtra(EXTRA_SERVICE_UUID, characteristic.getService().getUuid().toString());
-        intent.putExtra(EXTRA_CHARACTERISTIC_UUID, characteristic.getUuid().toString());
+    void broadcastData(final String address,
+                       final UUID serviceUuid,
+                       final UUID characteristicUuid,
+                       final byte[] data,
+                       final BleSensor<?> sensor) {
+        final Intent intent = new Intent(ACTION_DATA_AVAILABLE);
+        intent.putExtra(EXTRA_DEVICE_ADDRESS, address);
+        intent.putExtra(EXTRA_SERVICE_UUID, serviceUuid.toString());
+        intent.putExtra(EXTRA_CHARACTERISTIC_UUID, characteristicUuid.toString());
 
-        final BleSensor<?> sensor = BleSensors.getSensor(characteristic.getService().getUuid().toString());
         if (sensor != null) {
-            sensor.onCharacteristicChanged(characteristic);
-            final String text = sensor.getDataString();
-            intent.putExtra(EXTRA_TEXT, text);
-            sendBroadcast(intent);
+            sensor.onCharacteristicChanged(data);
+            intent.putExtra(EXTRA_TEXT, sensor.getDataString());
         } else {
             // For all other profiles, writes the data formatted in HEX.
-            final byte[] data = characteristic.getValue();
             if (data != null && data.length > 0) {
                 final StringBuilder stringBuilder = new StringBuilder(data.length);
                 for (byte byteChar : data)
@@ -156,6 +109,42 @@ public class BleService extends Service {
         sendBroadcast(intent);
     }
 
+    /**
+     * @return the channel the sensor notifications of the device are published on.
+     *         It stays the same for the life time of the service.
+     */
+    public SensorEventBus getEventBus(String address) {
+        return connection(address).getEventBus();
+    }
+
+    /**
+     * @return the instance of a sensor that parses the data of the device, or null if
+     *         the service is not a known sensor.
+     */
+    public BleSensor<?> getSensor(String address, UUID serviceUuid) {
+        return connection(address).getSensor(serviceUuid);
+    }
+
+    public BleSensor<?> getSensor(String address, String serviceUuid) {
+        return getSensor(address, UUID.fromString(serviceUuid));
+    }
+
+    public boolean isConnected(String address) {
+        final BleConnection connection = connections.get(address);
+        return connection != null && connection.isConnected();
+    }
+
+    private BleConnection connection(String address) {
+        BleConnection connection = connections.get(address);
+        if (connection == null) {
+            final BleConnection created = new BleConnection(this, address, watchdog);
+            connection = connections.putIfAbsent(address, created);
+            if (connection == null)
+                connection = created;
+        }
+        return connection;
+    }
+
     public class LocalBinder extends Binder {
         public BleService getService() {
             return BleService.this;
@@ -167,6 +156,13 @@ public class BleService extends Service {
         return mBinder;
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        close();
+        watchdog.shutdownNow();
+    }
+
     @Override
     public boolean onUnbind(Intent intent) {
         // After using a given device, you should make sure that BluetoothGatt.close() is called
@@ -179,20 +175,19 @@ public class BleService extends Service {
     /**
 	 * Enables or disables notification on a given characteristic.
 	 *
+	 * @param address Device to enable the sensor on
 	 * @param sensor Sensor to enable
 	 * @param enabled If true, enable notification.  False otherwise.
 	 */
-	public void enableSensor(BleSensor<?> sensor, boolean enabled) {
+	public void enableSensor(String address, BleSensor<?> sensor, boolean enabled) {
 	    if (sensor == null)
 	        return;
 	
-	    if (adapter == null || gatt == null) {
+	    final BleConnection connection = connections.get(address);
+	    if (adapter == null || connection == null
+	            || !connection.enableSensor(connection.getSensor(sensor.getServiceId()), enabled)) {
 	        Log.w(TAG, "BluetoothAdapter not initialized");
-	        return;
 	    }
-	
-	    executor.enable(sensor, enabled);
-	    executor.execute(gatt);
 	}
 
 	private final IBinder mBinder = new LocalBinder();
@@ -223,7 +218,8 @@ public class BleService extends Service {
     }
 
     /**
-     * Connects to the GATT server hosted on the Bluetooth LE device.
+     * Connects to the GATT server hosted on the Bluetooth LE device. Other devices stay
+     * connected.
      *
      * @param address The device address of the destination device.
      *
@@ -238,30 +234,7 @@ public class BleService extends Service {
             return false;
         }
 
-        // Previously connected device.  Try to reconnect.
-        if (deviceAddress != null && address.equals(deviceAddress)
-                && gatt != null) {
-            Log.d(TAG, "Trying to use an existing BluetoothGatt for connection.");
-            if (gatt.connect()) {
-                connectionState = STATE_CONNECTING;
-                return true;
-            } else {
-                return false;
-            }
-        }
-
-        final BluetoothDevice device = adapter.getRemoteDevice(address);
-        if (device == null) {
-            Log.w(TAG, "Device not found.  Unable to connect.");
-            return false;
-        }
-        // We want to directly connect to the device, so we are setting the autoConnect
-        // parameter to false.
-        gatt = device.connectGatt(this, false, executor);
-        Log.d(TAG, "Trying to create a new connection.");
-        deviceAddress = address;
-        connectionState = STATE_CONNECTING;
-        return true;
+        return connection(address).connect(adapter);
     }
 
     /**
@@ -270,52 +243,59 @@ public class BleService extends Service {
      * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
      * callback.
      */
-    public void disconnect() {
-        if (adapter == null || gatt == null) {
+    public void disconnect(String address) {
+        final BleConnection connection = connections.get(address);
+        if (adapter == null || connection == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        gatt.disconnect();
+        connection.disconnect();
     }
 
     /**
      * After using a given BLE device, the app must call this method to ensure resources are
      * released properly.
      */
+    public void close(String address) {
+        final BleConnection connection = connections.get(address);
+        if (connection != null)
+            connection.close();
+    }
+
+    /**
+     * Closes the connections to all devices.
+     */
     public void close() {
-        if (gatt == null) {
-            return;
+        for (BleConnection connection : connections.values()) {
+            connection.close();
         }
-        gatt.close();
-        gatt = null;
     }
 
     /**
-     * Request a read on a given {@code BluetoothGattCharacteristic}. The read result is reported
+     * Request a read on a given {@code BluetoothGattCharacteristic}. The read is queued behind
+     * pending sensor configuration. The read result is reported
      * asynchronously through the {@code BluetoothGattCallback#onCharacteristicRead(android.bluetooth.BluetoothGatt, android.bluetooth.BluetoothGattCharacteristic, int)}
      * callback.
      *
+     * @param address The device to read from.
      * @param characteristic The characteristic to read from.
      */
-    public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if (adapter == null || gatt == null) {
+    public void readCharacteristic(String address, BluetoothGattCharacteristic characteristic) {
+        final BleConnection connection = connections.get(address);
+        if (adapter == null || connection == null || !connection.readCharacteristic(characteristic)) {
             Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
         }
-        gatt.readCharacteristic(characteristic);
     }
 
-    public void updateSensor(BleSensor<?> sensor) {
+    public void updateSensor(String address, BleSensor<?> sensor) {
         if (sensor == null)
             return;
 
-        if (adapter == null || gatt == null) {
+        final BleConnection connection = connections.get(address);
+        if (adapter == null || connection == null
+                || !connection.updateSensor(connection.getSensor(sensor.getServiceId()))) {
             Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
         }
-
-        executor.update(sensor);
-        executor.execute(gatt);
     }
 
     /**
@@ -324,9 +304,10 @@ public class BleService extends Service {
      *
      * @return A {@code List} of supported services.
      */
-    public List<BluetoothGattService> getSupportedGattServices() {
-        if (gatt == null) return null;
+    public List<BluetoothGattService> getSupportedGattServices(String address) {
+        final BleConnection connection = connections.get(address);
+        if (connection == null) return null;
 
-        return gatt.getServices();
+        return connection.getServices();
     }
 }
@@ -1,98 +1,456 @@
 package com.sample.hrv;
 
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothProfile;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.sample.hrv.sensor.BleSensor;
+import com.sample.hrv.transport.GattTransport;
 
 
 /**
+ * Runs GATT operations one at a time, as the Android stack requires.
+ *
+ * Operations are queued from any thread in two priority classes: configuration writes
+ * that enable notifications run ahead of one-off reads. A queued action replaces a
+ * pending action of the same type on the same characteristic, so toggling a sensor
+ * quickly sends only the last value. It keeps the place of the pending action when
+ * both have the same priority, and goes to the end of its own class otherwise. The
+ * operation in flight is held in an atomic reference that is released by the matching
+ * callback, or by a watchdog when the callback does not arrive within
+ * {@link #TIMEOUT_MILLIS}. Failed and timed out operations are retried up to
+ * {@link #MAX_RETRIES} times before they are dropped, so a lost callback no longer
+ * stalls the queue. The latency of every operation type is recorded, see
+ * {@link #getStats(int)}.
+ *
+ * The operations run on a {@link GattTransport} and complete with its callbacks, so the
+ * executor does not depend on the Android framework. Subclasses handle the other
+ * callbacks of the connection.
+ *
  * Created by steven on 9/3/13.
  * Modified by olli on 3/28/2014.
  */
-public class BluetoothGattExecutor extends BluetoothGattCallback {
+public class BluetoothGattExecutor implements GattTransport.Callback {
+    private final static Logger LOG = Logger.getLogger(BluetoothGattExecutor.class.getSimpleName());
+
+    public static final long TIMEOUT_MILLIS = 5000;
+    public static final int MAX_RETRIES = 2;
+
+    public abstract static class ServiceAction {
+        // Completes instantly, no callback expected.
+        public static final int TYPE_NONE = 0;
+        public static final int TYPE_READ = 1;
+        public static final int TYPE_WRITE = 2;
+        public static final int TYPE_WRITE_DESCRIPTOR = 3;
+        static final int TYPE_COUNT = 4;
+
+        public static final int PRIORITY_HIGH = 0;
+        public static final int PRIORITY_LOW = 1;
+        static final int PRIORITY_COUNT = 2;
 
-    public interface ServiceAction {
-        ServiceAction NULL = new ServiceAction() {
+        public static final ServiceAction NULL = new ServiceAction(TYPE_NONE, null) {
             @Override
-            public boolean execute(BluetoothGatt bluetoothGatt) {
+            public boolean execute(GattTransport transport) {
                 // it is null action. do nothing.
                 return true;
             }
         };
 
+        private final int type;
+        private final String uuid;
+        private final int priority;
+        private final String key;
+
+        /**
+         * Creates an action with low priority for reads and high priority otherwise.
+         *
+         * @param type one of the {@code TYPE_} constants, the callback that completes it.
+         * @param uuid characteristic or descriptor the action works on, null if none.
+         */
+        protected ServiceAction(int type, String uuid) {
+            this(type, uuid, type == TYPE_READ ? PRIORITY_LOW : PRIORITY_HIGH);
+        }
+
+        /**
+         * @param priority one of the {@code PRIORITY_} constants.
+         */
+        protected ServiceAction(int type, String uuid, int priority) {
+            this.type = type;
+            this.uuid = uuid;
+            this.priority = priority;
+            this.key = uuid == null || type == TYPE_NONE ? null : type + "/" + uuid;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public String getUuid() {
+            return uuid;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return the key of actions this one supersedes while they are queued, or null.
+         */
+        public String getKey() {
+            return key;
+        }
+
         /***
-         * Executes action.
-         * @param bluetoothGatt - Android BLE Support
+         * Executes action. Actions may be executed again if they fail or time out.
+         * @param transport - the connection
          * @return true - if action was executed instantly. false if action is waiting for
          *         feedback.
          */
-        boolean execute(BluetoothGatt bluetoothGatt);
+        public abstract boolean execute(GattTransport transport);
+    }
+
+    /**
+     * Latency statistics of one operation type.
+     */
+    public static class OperationStats {
+        private long count;
+        private long failures;
+        private long timeouts;
+        private long retries;
+        private long totalNanos;
+        private long maxNanos;
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        public synchronized long getTimeouts() {
+            return timeouts;
+        }
+
+        public synchronized long getRetries() {
+            return retries;
+        }
+
+        public synchronized double getMeanMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        synchronized void completed(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized void failed(boolean timeout, boolean retry) {
+            if (timeout)
+                timeouts++;
+            if (retry)
+                retries++;
+            else
+                failures++;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US, "%d ok, mean %.1f ms, max %.1f ms, %d retries, %d timeouts, %d failed",
+                    count, getMeanMillis(), getMaxMillis(), retries, timeouts, failures);
+        }
+    }
+
+    // An execution of an action, a retry is a new operation.
+    private static class Operation {
+        final ServiceAction action;
+        final GattTransport transport;
+        final int attempt;
+        long startNanos;
+        volatile ScheduledFuture<?> timeout;
+
+        Operation(ServiceAction action, GattTransport transport, int attempt) {
+            this.action = action;
+            this.transport = transport;
+            this.attempt = attempt;
+        }
+    }
+
+    // A queue entry, its action can be replaced until it is taken.
+    private static class Slot {
+        final String key;
+        final int priority;
+        final AtomicReference<ServiceAction> action;
+
+        Slot(String key, ServiceAction action) {
+            this.key = key;
+            this.priority = action.getPriority();
+            this.action = new AtomicReference<>(action);
+        }
+
+        boolean replace(ServiceAction next) {
+            while (true) {
+                final ServiceAction queued = action.get();
+                if (queued == null)
+                    return false;
+                if (action.compareAndSet(queued, next))
+                    return true;
+            }
+        }
+
+        // The slot is skipped when it is taken.
+        void cancel() {
+            action.set(null);
+        }
     }
 
-    private final LinkedList<BluetoothGattExecutor.ServiceAction> queue = new LinkedList<>();
-    private volatile ServiceAction currentAction;
+    // Marks the in-flight slot as taken while the next operation is dequeued.
+    private static final Operation CLAIMED = new Operation(ServiceAction.NULL, null, 0);
+
+    private final Queue<Slot>[] queues = newQueues();
+    private final ConcurrentHashMap<String, Slot> pending = new ConcurrentHashMap<>();
+    private final AtomicReference<Operation> current = new AtomicReference<>();
+    private final OperationStats[] stats = new OperationStats[ServiceAction.TYPE_COUNT];
+
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * @param watchdog runs the timeouts, it can be shared by the executors of all connections.
+     */
+    public BluetoothGattExecutor(ScheduledExecutorService watchdog) {
+        this.watchdog = watchdog;
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new OperationStats();
+        }
+    }
+
+    /**
+     * @param type one of the {@code ServiceAction.TYPE_} constants.
+     */
+    public OperationStats getStats(int type) {
+        return stats[type];
+    }
 
     void update(final BleSensor sensor) {
-        queue.add(sensor.update());
+        enqueue(sensor.update());
     }
 
     void enable(BleSensor sensor, boolean enable) {
-        final ServiceAction[] actions = sensor.enable(enable);
-        Collections.addAll(this.queue, actions);
+        for (ServiceAction action : sensor.enable(enable)) {
+            enqueue(action);
+        }
+    }
+
+    /**
+     * Queues a one-off read of a characteristic with low priority.
+     */
+    void read(final UUID serviceUuid, final UUID characteristicUuid) {
+        enqueue(new ServiceAction(ServiceAction.TYPE_READ, characteristicUuid.toString()) {
+            @Override
+            public boolean execute(GattTransport transport) {
+                return !transport.readCharacteristic(serviceUuid, characteristicUuid);
+            }
+        });
     }
 
-    void execute(BluetoothGatt gatt) {
-        if (currentAction != null)
+    /**
+     * Queues an action, replacing a queued action with the same key. The replacement
+     * takes the queued slot if it has the same priority, a new slot in the queue of its
+     * priority otherwise.
+     */
+    void enqueue(ServiceAction action) {
+        final String key = action.getKey();
+        if (key == null) {
+            queues[action.getPriority()].add(new Slot(null, action));
             return;
+        }
+        while (true) {
+            final Slot queued = pending.get(key);
+            if (queued != null) {
+                if (queued.priority == action.getPriority()) {
+                    if (queued.replace(action))
+                        return;
+                } else {
+                    queued.cancel();
+                }
+            }
+            final Slot slot = new Slot(key, action);
+            if (queued == null ? pending.putIfAbsent(key, slot) == null : pending.replace(key, queued, slot)) {
+                queues[action.getPriority()].add(slot);
+                return;
+            }
+        }
+    }
 
-        boolean next = !queue.isEmpty();
-        while (next) {
-            final BluetoothGattExecutor.ServiceAction action = queue.pop();
-            currentAction = action;
-            if (!action.execute(gatt))
-                break;
+    /**
+     * Starts the next queued operations unless one is in flight.
+     */
+    void execute(GattTransport transport) {
+        while (!isIdle()) {
+            if (!current.compareAndSet(null, CLAIMED))
+                return;
+            final ServiceAction action = poll();
+            if (action == null) {
+                current.set(null);
+                continue;
+            }
+            final Operation operation = new Operation(action, transport, 1);
+            current.set(operation);
+            if (!start(operation))
+                return;
+        }
+    }
+
+    private boolean isIdle() {
+        for (Queue<Slot> queue : queues) {
+            if (!queue.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    // Takes the next action by priority, null if none is queued.
+    private ServiceAction poll() {
+        for (Queue<Slot> queue : queues) {
+            Slot slot;
+            while ((slot = queue.poll()) != null) {
+                if (slot.key != null)
+                    pending.remove(slot.key, slot);
+                final ServiceAction action = slot.action.getAndSet(null);
+                if (action != null)
+                    return action;
+            }
+        }
+        return null;
+    }
+
+    private void clear() {
+        for (Queue<Slot> queue : queues) {
+            queue.clear();
+        }
+        pending.clear();
+    }
 
-            currentAction = null;
-            next = !queue.isEmpty();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Queue<Slot>[] newQueues() {
+        final Queue<Slot>[] queues = new Queue[ServiceAction.PRIORITY_COUNT];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
         }
+        return queues;
+    }
+
+    // Returns true if the operation completed instantly and the slot is free again.
+    private boolean start(final Operation operation) {
+        operation.startNanos = System.nanoTime();
+        boolean instant;
+        try {
+            instant = operation.action.execute(operation.transport);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Operation on " + operation.action.getUuid() + " failed", e);
+            instant = true;
+        }
+        if (instant) {
+            current.compareAndSet(operation, null);
+            return true;
+        }
+        operation.timeout = watchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                timedOut(operation);
+            }
+        }, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        return false;
+    }
+
+    // Called from the GATT callbacks.
+    private void complete(GattTransport transport, int status) {
+        final Operation operation = current.get();
+        if (operation == null || operation == CLAIMED)
+            return;
+        if (status != GattTransport.STATUS_SUCCESS) {
+            LOG.warning("Operation on " + operation.action.getUuid() + " failed with status " + status);
+            retryOrDrop(operation, false);
+            return;
+        }
+        if (!current.compareAndSet(operation, null))
+            return;
+        if (operation.timeout != null)
+            operation.timeout.cancel(false);
+
+        final long nanos = System.nanoTime() - operation.startNanos;
+        stats[operation.action.getType()].completed(nanos);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("Operation on " + operation.action.getUuid() + " took "
+                    + nanos / 1000000 + " ms, attempt " + operation.attempt);
+        execute(transport);
+    }
+
+    private void timedOut(Operation operation) {
+        LOG.warning("Operation on " + operation.action.getUuid() + " timed out, attempt " + operation.attempt);
+        retryOrDrop(operation, true);
+    }
+
+    private void retryOrDrop(Operation operation, boolean timeout) {
+        final boolean retry = operation.attempt <= MAX_RETRIES;
+        final Operation next = retry
+                ? new Operation(operation.action, operation.transport, operation.attempt + 1) : null;
+        if (!current.compareAndSet(operation, next))
+            return;
+        if (operation.timeout != null)
+            operation.timeout.cancel(false);
+        stats[operation.action.getType()].failed(timeout, retry);
+
+        if (retry && !start(next))
+            return;
+        execute(operation.transport);
     }
 
     @Override
-    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-        super.onDescriptorWrite(gatt, descriptor, status);
+    public void onConnectionStateChange(GattTransport transport, int status, boolean connected) {
+        if (!connected) {
+            clear();
+            final Operation operation = current.getAndSet(null);
+            if (operation != null && operation.timeout != null)
+                operation.timeout.cancel(false);
+        }
+    }
 
-        currentAction = null;
-        execute(gatt);
+    @Override
+    public void onServicesDiscovered(GattTransport transport, int status) {
     }
 
     @Override
-    public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-        super.onCharacteristicWrite(gatt, characteristic, status);
+    public void onCharacteristicRead(GattTransport transport, UUID serviceUuid,
+                                     UUID characteristicUuid, byte[] value, int status) {
+        complete(transport, status);
+    }
 
-        currentAction = null;
-        execute(gatt);
+    @Override
+    public void onCharacteristicWrite(GattTransport transport, UUID characteristicUuid, int status) {
+        complete(transport, status);
     }
 
     @Override
-    public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-        if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-            queue.clear();
-        }
+    public void onDescriptorWrite(GattTransport transport, UUID characteristicUuid, int status) {
+        complete(transport, status);
     }
 
     @Override
-    public void onCharacteristicRead(BluetoothGatt gatt,
-                                     BluetoothGattCharacteristic characteristic,
-                                     int status) {
-        currentAction = null;
-        execute(gatt);
+    public void onCharacteristicChanged(GattTransport transport, UUID serviceUuid,
+                                        UUID characteristicUuid, byte[] value) {
     }
 }
@@ -24,11 +24,22 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -37,24 +48,142 @@ import android.widget.Toast;
 
 import com.sample.hrv.R;
 import com.sample.hrv.adapters.BleDevicesAdapter;
+import com.sample.hrv.sensor.BleHeartRateSensor;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Activity for scanning and displaying available Bluetooth LE devices.
+ *
+ * By default only devices advertising the Heart Rate service are scanned for, filtered
+ * by the controller where it supports offloaded filtering. Where the controller can
+ * batch results they are reported every {@link #REPORT_DELAY_MILLIS}. Either way the
+ * list is redrawn at most every {@link #REFRESH_INTERVAL_MILLIS}, however many results
+ * arrive in between; the subtitle shows the results received and the redraws. Devices
+ * that stopped advertising are dropped from the list while scanning.
+ *
+ * At startup the heart rate strap used last is connected directly, in parallel with the
+ * scan; once it connects the scan stops and its services are opened without waiting
+ * for the user. Picking another device from the list cancels the connection, and so
+ * does a strap that is off or out of range and has not connected within
+ * {@link #FAST_CONNECT_TIMEOUT_MILLIS}. The scan goes on in both cases.
  */
 public class DeviceScanActivity extends ListActivity {
+    private final static String TAG = DeviceScanActivity.class.getSimpleName();
 
     private static final int REQUEST_ENABLE_BT = 1;
 
+    private static final long REPORT_DELAY_MILLIS = 500;
+    private static final long REFRESH_INTERVAL_MILLIS = 500;
+    private static final long EVICT_INTERVAL_MILLIS = 1000;
+    // Time the direct connection to a known device gets to come up.
+    private static final long FAST_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final ParcelUuid HEART_RATE_SERVICE =
+            ParcelUuid.fromString(BleHeartRateSensor.getServiceUUIDString());
+
     private BleDevicesAdapter leDeviceListAdapter;
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothLeScanner bluetoothLeScanner;
+    private boolean heartRateOnly = true;
+
+    // Start of the app, in SystemClock.elapsedRealtime(), for the time to the first beat.
+    private long launchMillis;
+    private KnownDevices knownDevices;
+    // Direct connection to the device used last, null once it is opened or cancelled.
+    private KnownDevices.Device fastConnectDevice;
+    private boolean fastConnectTried;
+    private BleService bleService;
+    private boolean serviceBound;
+
+    // Scan state, only used on the main thread, where the scan callbacks run.
+    private final Handler handler = new Handler();
+    private boolean refreshPending;
+    private long lastRefreshMillis;
+    private long resultsReceived;
+    private long refreshes;
+
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refreshPending = false;
+            refresh();
+        }
+    };
+
+    private final Runnable stopScanTask = new Runnable() {
+        @Override
+        public void run() {
+            stopScan();
+            invalidateOptionsMenu();
+        }
+    };
+
+    // The direct connection did not come up, stop its retries and leave it to the scan.
+    private final Runnable fastConnectTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            if (fastConnectDevice == null)
+                return;
+            Log.i(TAG, "No direct connection to " + fastConnectDevice.address
+                    + " in " + FAST_CONNECT_TIMEOUT_MILLIS + " ms");
+            if (bleService != null)
+                bleService.close(fastConnectDevice.address);
+            cancelFastConnect();
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder service) {
+            bleService = ((BleService.LocalBinder) service).getService();
+            if (fastConnectDevice == null)
+                return;
+            if (!bleService.initialize() || !bleService.connect(fastConnectDevice.address)) {
+                Log.w(TAG, "Unable to connect to " + fastConnectDevice.address + " directly");
+                cancelFastConnect();
+                return;
+            }
+            Log.i(TAG, "Connecting to " + fastConnectDevice.address + " directly");
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            bleService = null;
+        }
+    };
+
+    private final BroadcastReceiver connectReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final KnownDevices.Device device = fastConnectDevice;
+            if (device == null
+                    || !device.address.equals(intent.getStringExtra(BleService.EXTRA_DEVICE_ADDRESS)))
+                return;
+            fastConnectDevice = null;
+            unregisterReceiver(connectReceiver);
+            handler.removeCallbacks(fastConnectTimeoutTask);
+            handler.post(stopScanTask);
+            openDevice(device.name, device.address, true);
+        }
+    };
+
+    private final Runnable evictTask = new Runnable() {
+        @Override
+        public void run() {
+            if (leDeviceListAdapter.evictStale(SystemClock.elapsedRealtime()))
+                scheduleRefresh();
+            handler.postDelayed(this, EVICT_INTERVAL_MILLIS);
+        }
+    };
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        launchMillis = SystemClock.elapsedRealtime();
         getActionBar().setTitle(R.string.title_devices);
+        knownDevices = new KnownDevices(this);
 
         // Use this check to determine whether BLE is supported on the device.  Then you can
         // selectively disable BLE-related features.
@@ -81,6 +210,7 @@ public class DeviceScanActivity extends ListActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.gatt_scan, menu);
+        menu.findItem(R.id.menu_heart_rate_only).setChecked(heartRateOnly);
         if (bluetoothLeScanner == null) {
             menu.findItem(R.id.menu_stop).setVisible(false);
             menu.findItem(R.id.menu_scan).setVisible(true);
@@ -99,21 +229,28 @@ public class DeviceScanActivity extends ListActivity {
         switch (item.getItemId()) {
             case R.id.menu_scan:
                 leDeviceListAdapter.clear();
+                leDeviceListAdapter.notifyDataSetChanged();
                 if (bluetoothLeScanner == null) {
-                    bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
-                    bluetoothLeScanner.startScan(mLeScanCallback);
-
+                    startScan();
                     invalidateOptionsMenu();
                 }
                 break;
             case R.id.menu_stop:
                 if (bluetoothLeScanner != null) {
-                    bluetoothLeScanner.stopScan(mLeScanCallback);
-                    bluetoothLeScanner = null;
-
+                    stopScan();
                     invalidateOptionsMenu();
                 }
                 break;
+            case R.id.menu_heart_rate_only:
+                heartRateOnly = !item.isChecked();
+                item.setChecked(heartRateOnly);
+                if (bluetoothLeScanner != null) {
+                    stopScan();
+                    leDeviceListAdapter.clear();
+                    leDeviceListAdapter.notifyDataSetChanged();
+                    startScan();
+                }
+                break;
         }
         return true;
     }
@@ -150,9 +287,19 @@ public class DeviceScanActivity extends ListActivity {
     protected void onPause() {
         super.onPause();
 
-        if (bluetoothLeScanner != null) {
-            bluetoothLeScanner.stopScan(mLeScanCallback);
-            bluetoothLeScanner = null;
+        stopScan();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        // The activity opened has bound the service by now, so the connection stays.
+        cancelFastConnect();
+        if (serviceBound) {
+            unbindService(serviceConnection);
+            serviceBound = false;
+            bleService = null;
         }
     }
 
@@ -162,12 +309,43 @@ public class DeviceScanActivity extends ListActivity {
         if (device == null)
             return;
 
+        final boolean direct = fastConnectDevice != null
+                && fastConnectDevice.address.equals(device.getAddress());
+        if (!direct && fastConnectDevice != null && bleService != null)
+            bleService.close(fastConnectDevice.address);
+        cancelFastConnect();
+        openDevice(device.getName(), device.getAddress(), direct);
+    }
+
+    private void openDevice(String name, String address, boolean direct) {
         final Intent intent = new Intent(this, DeviceServicesActivity.class);
-        intent.putExtra(DeviceServicesActivity.EXTRAS_DEVICE_NAME, device.getName());
-        intent.putExtra(DeviceServicesActivity.EXTRAS_DEVICE_ADDRESS, device.getAddress());
+        intent.putExtra(DeviceServicesActivity.EXTRAS_DEVICE_NAME, name);
+        intent.putExtra(DeviceServicesActivity.EXTRAS_DEVICE_ADDRESS, address);
+        intent.putExtra(DeviceServicesActivity.EXTRAS_LAUNCH_MILLIS, launchMillis);
+        intent.putExtra(DeviceServicesActivity.EXTRAS_DIRECT_CONNECTION, direct);
         startActivity(intent);
     }
 
+    // Connects the heart rate strap used last while the scan runs.
+    private void startFastConnect() {
+        final KnownDevices.Device device = knownDevices.getMostRecent();
+        if (device == null || !device.hasService(HEART_RATE_SERVICE.getUuid()))
+            return;
+        fastConnectDevice = device;
+        registerReceiver(connectReceiver, new IntentFilter(BleService.ACTION_GATT_CONNECTED));
+        serviceBound = bindService(new Intent(this, BleService.class), serviceConnection, BIND_AUTO_CREATE);
+        handler.postDelayed(fastConnectTimeoutTask, FAST_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    // Called while the direct connection has not come up, the scan goes on.
+    private void cancelFastConnect() {
+        if (fastConnectDevice == null)
+            return;
+        fastConnectDevice = null;
+        unregisterReceiver(connectReceiver);
+        handler.removeCallbacks(fastConnectTimeoutTask);
+    }
+
     private void init() {
         if (leDeviceListAdapter == null) {
             leDeviceListAdapter = new BleDevicesAdapter(getBaseContext());
@@ -175,29 +353,98 @@ public class DeviceScanActivity extends ListActivity {
         }
 
         if (bluetoothLeScanner == null) {
-            bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
-            bluetoothLeScanner.startScan(mLeScanCallback);
+            startScan();
+        }
+        if (!fastConnectTried) {
+            fastConnectTried = true;
+            startFastConnect();
         }
 
         invalidateOptionsMenu();
     }
 
+    private void startScan() {
+        bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (bluetoothLeScanner == null) {
+            // Bluetooth was turned off in the meantime.
+            return;
+        }
+        resultsReceived = 0;
+        refreshes = 0;
+
+        final List<ScanFilter> filters = heartRateOnly
+                ? Collections.singletonList(new ScanFilter.Builder().setServiceUuid(HEART_RATE_SERVICE).build())
+                : Collections.<ScanFilter>emptyList();
+        final ScanSettings.Builder settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+        // A report delay fails the scan on controllers that cannot batch.
+        final boolean batching = bluetoothAdapter.isOffloadedScanBatchingSupported();
+        if (batching)
+            settings.setReportDelay(REPORT_DELAY_MILLIS);
+
+        Log.i(TAG, "Starting scan, heart rate only: " + heartRateOnly
+                + ", offloaded filtering: " + bluetoothAdapter.isOffloadedFilteringSupported()
+                + ", batching: " + batching);
+        bluetoothLeScanner.startScan(filters, settings.build(), mLeScanCallback);
+        handler.postDelayed(evictTask, EVICT_INTERVAL_MILLIS);
+    }
+
+    private void stopScan() {
+        if (bluetoothLeScanner == null)
+            return;
+        bluetoothLeScanner.stopScan(mLeScanCallback);
+        bluetoothLeScanner = null;
+        handler.removeCallbacks(stopScanTask);
+        handler.removeCallbacks(evictTask);
+        handler.removeCallbacks(refreshTask);
+        if (refreshPending) {
+            refreshPending = false;
+            refresh();
+        }
+        Log.i(TAG, "Scan stopped, " + resultsReceived + " results, " + refreshes + " list refreshes");
+    }
+
+    private void addResult(ScanResult result) {
+        resultsReceived++;
+        // The timestamp is in elapsed realtime, also for batched results.
+        leDeviceListAdapter.addDevice(result.getDevice(), result.getRssi(),
+                result.getTimestampNanos() / 1000000);
+    }
+
+    // Redraws the list now, or once the refresh interval has passed.
+    private void scheduleRefresh() {
+        if (refreshPending)
+            return;
+        final long due = lastRefreshMillis + REFRESH_INTERVAL_MILLIS;
+        if (SystemClock.uptimeMillis() >= due) {
+            refresh();
+        } else {
+            refreshPending = true;
+            handler.postAtTime(refreshTask, due);
+        }
+    }
+
+    private void refresh() {
+        lastRefreshMillis = SystemClock.uptimeMillis();
+        refreshes++;
+        leDeviceListAdapter.notifyDataSetChanged();
+        getActionBar().setSubtitle(getString(R.string.scan_stats, resultsReceived, refreshes));
+    }
+
     // Device scan callback.
     private ScanCallback mLeScanCallback =
             new ScanCallback() {
                 @Override
                 public void onScanResult(int callbackType, ScanResult result) {
-                    leDeviceListAdapter.addDevice(result.getDevice(),
-                                                  result.getRssi());
-                    leDeviceListAdapter.notifyDataSetChanged();
+                    addResult(result);
+                    scheduleRefresh();
                 }
                 @Override
                 public void onBatchScanResults(List<ScanResult> results) {
                     for (ScanResult result : results) {
-                        leDeviceListAdapter.addDevice(result.getDevice(),
-                                                      result.getRssi());
-                        leDeviceListAdapter.notifyDataSetChanged();
+                        addResult(result);
                     }
+                    scheduleRefresh();
                 }
                 @Override
                 public void onScanFailed(int errorCode) {
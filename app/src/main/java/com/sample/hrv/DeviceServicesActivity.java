@@ -37,6 +37,7 @@ import android.widget.SimpleExpandableListAdapter;
 import android.widget.TextView;
 
 import java.util.List;
+import java.util.UUID;
 
 
 import com.sample.hrv.R;
@@ -44,6 +45,9 @@ import com.sample.hrv.adapters.BleServicesAdapter;
 import com.sample.hrv.adapters.BleServicesAdapter.OnServiceItemClickListener;
 import com.sample.hrv.demo.DemoHeartRateSensorActivity;
 import com.sample.hrv.demo.DemoSensorActivity;
+import com.sample.hrv.event.MainThreadExecutor;
+import com.sample.hrv.event.SensorEvent;
+import com.sample.hrv.event.SensorEventBus;
 import com.sample.hrv.sensor.BleHeartRateSensor;
 import com.sample.hrv.sensor.BleSensor;
 import com.sample.hrv.sensor.BleSensors;
@@ -59,6 +63,14 @@ public class DeviceServicesActivity extends Activity {
 
     public static final String EXTRAS_DEVICE_NAME = "DEVICE_NAME";
     public static final String EXTRAS_DEVICE_ADDRESS = "DEVICE_ADDRESS";
+    // Start of the app in SystemClock.elapsedRealtime(), for the time to the first beat.
+    public static final String EXTRAS_LAUNCH_MILLIS = "LAUNCH_MILLIS";
+    // Whether the device was connected at startup without a scan.
+    public static final String EXTRAS_DIRECT_CONNECTION = "DIRECT_CONNECTION";
+
+    // Events queued for the UI thread before they are dropped.
+    private static final int EVENT_QUEUE_CAPACITY = 256;
+    private static final UUID HEART_RATE_SERVICE = UUID.fromString(BleHeartRateSensor.getServiceUUIDString());
 
     private TextView connectionState;
     private TextView dataField;
@@ -73,9 +85,14 @@ public class DeviceServicesActivity extends Activity {
     private String deviceAddress;
     private BleService bleService;
     private boolean isConnected = false;
+    private KnownDevices knownDevices;
+    // -1 once the first beat was recorded.
+    private long launchMillis;
+    private boolean directConnection;
 
     private BleSensor<?> activeSensor;
     private BleSensor<?> heartRateSensor;
+    private SensorEventBus.Subscription subscription;
     
 	private OnServiceItemClickListener serviceListener;
 
@@ -89,26 +106,59 @@ public class DeviceServicesActivity extends Activity {
                 Log.e(TAG, "Unable to initialize Bluetooth");
                 finish();
             }
+            subscription = bleService.getEventBus(deviceAddress).subscribe(eventSubscriber,
+                    new MainThreadExecutor(), EVENT_QUEUE_CAPACITY);
+            // Connected directly at startup, the broadcasts may have been sent already.
+            if (bleService.isConnected(deviceAddress)) {
+                isConnected = true;
+                updateConnectionState(R.string.connected);
+                invalidateOptionsMenu();
+                final List<BluetoothGattService> services = bleService.getSupportedGattServices(deviceAddress);
+                if (services != null && !services.isEmpty())
+                    servicesDiscovered(services);
+            }
             // Automatically connects to the device upon successful start-up initialization.
             bleService.connect(deviceAddress);
         }
 
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
+            subscription = null;
             bleService = null;
         }
     };
 
+    // Shows the heart rate once per measurement, it is published last.
+    private final SensorEventBus.Subscriber eventSubscriber = new SensorEventBus.Subscriber() {
+        @Override
+        public void onEvent(SensorEvent event) {
+            if (event.getType() != SensorEvent.TYPE_HEART_RATE || bleService == null)
+                return;
+            if (launchMillis >= 0) {
+                final long timeToFirstBeat = event.getTimeMillis() - launchMillis;
+                launchMillis = -1;
+                Log.i(TAG, "Time to first beat of " + deviceAddress + ": " + timeToFirstBeat + " ms, "
+                        + (directConnection ? "direct connection" : "scan"));
+                knownDevices.recordTimeToFirstBeat(deviceAddress, timeToFirstBeat);
+            }
+            final BleSensor<?> sensor = bleService.getSensor(deviceAddress, HEART_RATE_SERVICE);
+            if (sensor != null)
+                heartRateField.setText(sensor.getDataString());
+        }
+    };
+
     // Handles various events fired by the Service.
     // ACTION_GATT_CONNECTED: connected to a GATT server.
     // ACTION_GATT_DISCONNECTED: disconnected from a GATT server.
     // ACTION_GATT_SERVICES_DISCOVERED: discovered GATT services.
     // ACTION_DATA_AVAILABLE: received data from the device.  This can be a result of read
-    //                        or notification operations.
+    //                        operations or notifications of characteristics without a sensor.
     private final BroadcastReceiver gattUpdateReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             final String action = intent.getAction();
+            if (!deviceAddress.equals(intent.getStringExtra(BleService.EXTRA_DEVICE_ADDRESS)))
+                return;
             if (BleService.ACTION_GATT_CONNECTED.equals(action)) {
                 isConnected = true;
                 updateConnectionState(R.string.connected);
@@ -119,9 +169,7 @@ public class DeviceServicesActivity extends Activity {
                 invalidateOptionsMenu();
                 clearUI();
             } else if (BleService.ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
-                // Show all the supported services and characteristics on the user interface.
-                displayGattServices(bleService.getSupportedGattServices());
-				enableHeartRateSensor();
+                servicesDiscovered(bleService.getSupportedGattServices(deviceAddress));
             } else if (BleService.ACTION_DATA_AVAILABLE.equals(action)) {
 				displayData(intent.getStringExtra(BleService.EXTRA_SERVICE_UUID), intent.getStringExtra(BleService.EXTRA_TEXT));
 
@@ -142,13 +190,13 @@ public class DeviceServicesActivity extends Activity {
                         return false;
 
                     final BluetoothGattCharacteristic characteristic = gattServiceAdapter.getChild(groupPosition, childPosition);
-                    final BleSensor<?> sensor = BleSensors.getSensor(characteristic.getService().getUuid().toString());
+                    final BleSensor<?> sensor = BleSensors.getSensor(characteristic.getService().getUuid());
 
                     if (activeSensor != null)
-                        bleService.enableSensor(activeSensor, false);
+                        bleService.enableSensor(deviceAddress, activeSensor, false);
 
                     if (sensor == null) {
-                        bleService.readCharacteristic(characteristic);
+                        bleService.readCharacteristic(deviceAddress, characteristic);
                         return true;
                     }
 
@@ -156,7 +204,7 @@ public class DeviceServicesActivity extends Activity {
                         return true;
 
                     activeSensor = sensor;
-                    bleService.enableSensor(sensor, true);
+                    bleService.enableSensor(deviceAddress, sensor, true);
                     return true;
                 }
             };
@@ -165,7 +213,7 @@ public class DeviceServicesActivity extends Activity {
         @Override
         public void onDemoClick(BluetoothGattService service) {
         	Log.d(TAG, "onDemoClick: service" +service.getUuid().toString());
-            final BleSensor<?> sensor = BleSensors.getSensor(service.getUuid().toString());
+            final BleSensor<?> sensor = BleSensors.getSensor(service.getUuid());
             if (sensor == null)
                 return;
 
@@ -187,7 +235,7 @@ public class DeviceServicesActivity extends Activity {
             if (gattServiceAdapter == null)
                 return;
 
-            final BleSensor<?> sensor = BleSensors.getSensor(service.getUuid().toString());
+            final BleSensor<?> sensor = BleSensors.getSensor(service.getUuid());
             if (sensor == null)
                 return;
 
@@ -195,18 +243,18 @@ public class DeviceServicesActivity extends Activity {
                 return;
 
             if (activeSensor != null)
-                bleService.enableSensor(activeSensor, false);
+                bleService.enableSensor(deviceAddress, activeSensor, false);
             activeSensor = sensor;
-            bleService.enableSensor(sensor, true);
+            bleService.enableSensor(deviceAddress, sensor, true);
         }
 
         @Override
         public void onServiceUpdated(BluetoothGattService service) {
-            final BleSensor<?> sensor = BleSensors.getSensor(service.getUuid().toString());
+            final BleSensor<?> sensor = BleSensors.getSensor(service.getUuid());
             if (sensor == null)
                 return;
 
-            bleService.updateSensor(sensor);
+            bleService.updateSensor(deviceAddress, sensor);
         }
     };
 
@@ -228,6 +276,9 @@ public class DeviceServicesActivity extends Activity {
         final Intent intent = getIntent();
         deviceName = intent.getStringExtra(EXTRAS_DEVICE_NAME);
         deviceAddress = intent.getStringExtra(EXTRAS_DEVICE_ADDRESS);
+        launchMillis = intent.getLongExtra(EXTRAS_LAUNCH_MILLIS, -1);
+        directConnection = intent.getBooleanExtra(EXTRAS_DIRECT_CONNECTION, false);
+        knownDevices = new KnownDevices(this);
 
         // Sets up UI references.
         ((TextView) findViewById(R.id.device_address)).setText(deviceAddress);
@@ -279,6 +330,9 @@ public class DeviceServicesActivity extends Activity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (bleService != null)
+            bleService.getEventBus(deviceAddress).unsubscribe(subscription);
+        subscription = null;
         unbindService(serviceConnection);
         bleService = null;
     }
@@ -303,7 +357,7 @@ public class DeviceServicesActivity extends Activity {
                 bleService.connect(deviceAddress);
                 return true;
             case R.id.menu_disconnect:
-                bleService.disconnect();
+                bleService.disconnect(deviceAddress);
                 return true;
             case android.R.id.home:
                 onBackPressed();
@@ -340,28 +394,38 @@ public class DeviceServicesActivity extends Activity {
 		Log.d(TAG,"characteristic: " + characteristic);
 		final BleSensor<?> sensor = BleSensors.getSensor(characteristic
 				.getService()
-				.getUuid()
-				.toString());
+				.getUuid());
+
+		// Services are discovered again after a reconnect, the service restores the sensor.
+		if (sensor != null && sensor == heartRateSensor)
+			return true;
 
 		if (heartRateSensor != null)
-			bleService.enableSensor(heartRateSensor, false);
+			bleService.enableSensor(deviceAddress, heartRateSensor, false);
 
 		if (sensor == null) {
-			bleService.readCharacteristic(characteristic);
+			bleService.readCharacteristic(deviceAddress, characteristic);
 			return true;
 		}
 
-		if (sensor == heartRateSensor)
-			return true;
-
 		heartRateSensor = sensor;
-		bleService.enableSensor(sensor, true);
+		bleService.enableSensor(deviceAddress, sensor, true);
 		
         this.setServiceListener(demoClickListener);
 
 		return true;
 	}
 	
+    private void servicesDiscovered(List<BluetoothGattService> gattServices) {
+        if (gattServices == null)
+            return;
+
+        // Show all the supported services and characteristics on the user interface.
+        displayGattServices(gattServices);
+        enableHeartRateSensor();
+        knownDevices.remember(deviceAddress, deviceName, gattServices);
+    }
+
     private void displayGattServices(List<BluetoothGattService> gattServices) {
         if (gattServices == null)
             return;
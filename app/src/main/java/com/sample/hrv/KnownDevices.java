@@ -0,0 +1,170 @@
+package com.sample.hrv;
+
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The devices used last, with the services they were found to have, so a known strap
+ * can be connected at startup without waiting for a scan. Kept in shared preferences,
+ * one entry per address.
+ *
+ * The time from the app start to the first beat of a device is recorded with it, to
+ * compare a direct connection with a scan.
+ */
+class KnownDevices {
+    private final static String TAG = KnownDevices.class.getSimpleName();
+
+    private static final String PREFERENCES = "known_devices";
+    static final int MAX_DEVICES = 5;
+
+    static class Device {
+        final String address;
+        final String name;
+        final Set<UUID> services;
+        // Wall clock time the device was used last.
+        final long lastUsedMillis;
+        // -1 if not measured.
+        final long timeToFirstBeatMillis;
+
+        Device(String address, String name, Set<UUID> services, long lastUsedMillis,
+               long timeToFirstBeatMillis) {
+            this.address = address;
+            this.name = name;
+            this.services = services;
+            this.lastUsedMillis = lastUsedMillis;
+            this.timeToFirstBeatMillis = timeToFirstBeatMillis;
+        }
+
+        boolean hasService(UUID uuid) {
+            return services.contains(uuid);
+        }
+
+        // lastUsed;timeToFirstBeat;service,service;name
+        String encode() {
+            final StringBuilder builder = new StringBuilder();
+            builder.append(lastUsedMillis).append(';').append(timeToFirstBeatMillis).append(';');
+            boolean first = true;
+            for (UUID service : services) {
+                if (!first)
+                    builder.append(',');
+                builder.append(service);
+                first = false;
+            }
+            builder.append(';');
+            if (name != null)
+                builder.append(name);
+            return builder.toString();
+        }
+
+        static Device decode(String address, String value) {
+            final String[] fields = value.split(";", 4);
+            if (fields.length != 4)
+                throw new IllegalArgumentException("Malformed entry: " + value);
+            final Set<UUID> services = new HashSet<>();
+            if (!fields[2].isEmpty()) {
+                for (String service : fields[2].split(",")) {
+                    services.add(UUID.fromString(service));
+                }
+            }
+            return new Device(address, fields[3].isEmpty() ? null : fields[3], services,
+                    Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+        }
+    }
+
+    private static final Comparator<Device> MOST_RECENT_FIRST = new Comparator<Device>() {
+        @Override
+        public int compare(Device a, Device b) {
+            return a.lastUsedMillis > b.lastUsedMillis ? -1
+                    : a.lastUsedMillis == b.lastUsedMillis ? 0 : 1;
+        }
+    };
+
+    private final SharedPreferences preferences;
+
+    KnownDevices(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the known devices, the one used last first.
+     */
+    List<Device> getDevices() {
+        final List<Device> devices = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (!(entry.getValue() instanceof String))
+                continue;
+            try {
+                devices.add(Device.decode(entry.getKey(), (String) entry.getValue()));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Dropping known device " + entry.getKey(), e);
+                preferences.edit().remove(entry.getKey()).apply();
+            }
+        }
+        Collections.sort(devices, MOST_RECENT_FIRST);
+        return devices;
+    }
+
+    /**
+     * @return the device used last, or null if there is none.
+     */
+    Device getMostRecent() {
+        final List<Device> devices = getDevices();
+        return devices.isEmpty() ? null : devices.get(0);
+    }
+
+    Device get(String address) {
+        final String value = preferences.getString(address, null);
+        if (value == null)
+            return null;
+        try {
+            return Device.decode(address, value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records the use of a device with its discovered services. The least recently used
+     * devices beyond {@link #MAX_DEVICES} are forgotten.
+     */
+    void remember(String address, String name, List<BluetoothGattService> services) {
+        final Set<UUID> uuids = new HashSet<>();
+        for (BluetoothGattService service : services) {
+            uuids.add(service.getUuid());
+        }
+        final Device known = get(address);
+        final Device device = new Device(address, name, uuids, System.currentTimeMillis(),
+                known == null ? -1 : known.timeToFirstBeatMillis);
+
+        final SharedPreferences.Editor editor = preferences.edit();
+        editor.putString(address, device.encode());
+        // The device itself is kept.
+        int kept = 1;
+        for (Device other : getDevices()) {
+            if (other.address.equals(address))
+                continue;
+            if (++kept > MAX_DEVICES)
+                editor.remove(other.address);
+        }
+        editor.apply();
+    }
+
+    void recordTimeToFirstBeat(String address, long millis) {
+        final Device known = get(address);
+        if (known == null)
+            return;
+        preferences.edit().putString(address, new Device(known.address, known.name,
+                known.services, known.lastUsedMillis, millis).encode()).apply();
+    }
+}
@@ -0,0 +1,56 @@
+package com.sample.hrv;
+
+import java.util.Random;
+
+/**
+ * Delays between the attempts to restore a lost connection: exponential backoff with
+ * full jitter, so several straps that drop together do not retry in lock step.
+ *
+ * The first attempts connect directly, which fails after the stack's connection
+ * timeout when the device is out of range. After {@link #DIRECT_ATTEMPTS} of them the
+ * connection is left to the background auto connect of the stack, which waits for the
+ * device to advertise again without a timeout.
+ *
+ * Not thread safe.
+ */
+class ReconnectPolicy {
+
+    public static final long BASE_DELAY_MILLIS = 500;
+    public static final long MAX_DELAY_MILLIS = 30 * 1000;
+    public static final int DIRECT_ATTEMPTS = 3;
+
+    private final Random random;
+    private int attempts;
+
+    ReconnectPolicy(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * @return the delay before the next attempt, uniformly distributed between zero and
+     *         the exponential backoff.
+     */
+    long nextDelayMillis() {
+        final long backoff = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempts, 16));
+        attempts++;
+        return (long) (random.nextDouble() * backoff);
+    }
+
+    /**
+     * @return true if the next attempt should use auto connect.
+     */
+    boolean useAutoConnect() {
+        return attempts > DIRECT_ATTEMPTS;
+    }
+
+    int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Starts over after a successful connection.
+     */
+    void reset() {
+        attempts = 0;
+    }
+}
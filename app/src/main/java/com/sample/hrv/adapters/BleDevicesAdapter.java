@@ -9,38 +9,109 @@ import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 
 import com.sample.hrv.R;
 
 /** Adapter for holding devices found through scanning.
  *  Created by steven on 9/5/13.
  *  Modified by olli on 3/28/2014.
+ *
+ *  Devices are indexed by address, so a scan result updates its entry in constant time.
+ *  The RSSI of a device is smoothed exponentially, and devices not seen for
+ *  {@link #STALE_MILLIS} are dropped by {@link #evictStale(long)}. The list is sorted by
+ *  signal strength, nearest first, whenever it is redrawn. The sort is stable on whole
+ *  dBm, so devices with the same signal keep their places.
  */
 public class BleDevicesAdapter extends BaseAdapter {
+    public static final long STALE_MILLIS = 10 * 1000;
+    // Weight of a new RSSI sample; advertisements fluctuate by several dB.
+    private static final float RSSI_SMOOTHING = 0.25f;
+
     private final LayoutInflater inflater;
 
-    private final ArrayList<BluetoothDevice> leDevices;
-    private final HashMap<BluetoothDevice, Integer> rssiMap = new HashMap<>();
+    private final HashMap<String, Entry> devicesByAddress = new HashMap<>();
+    private final ArrayList<Entry> leDevices = new ArrayList<>();
+
+    private static class Entry {
+        BluetoothDevice device;
+        float rssi;
+        long lastSeenMillis;
+
+        int getSortRssi() {
+            return Math.round(rssi);
+        }
+    }
+
+    private static final Comparator<Entry> BY_RSSI = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            // Descending, the strongest signal first.
+            final int ra = a.getSortRssi();
+            final int rb = b.getSortRssi();
+            return ra < rb ? 1 : ra == rb ? 0 : -1;
+        }
+    };
 
     public BleDevicesAdapter(Context context) {
-        leDevices = new ArrayList<>();
         inflater = LayoutInflater.from(context);
     }
 
-    public void addDevice(BluetoothDevice device, int rssi) {
-        if (!leDevices.contains(device)) {
-            leDevices.add(device);
+    /**
+     * Adds a device or updates its entry. New devices are shown at the end of the list
+     * until it is redrawn.
+     *
+     * @param timeMillis when the advertisement was received, in
+     *                   {@code SystemClock.elapsedRealtime()}.
+     */
+    public void addDevice(BluetoothDevice device, int rssi, long timeMillis) {
+        Entry entry = devicesByAddress.get(device.getAddress());
+        if (entry == null) {
+            entry = new Entry();
+            entry.rssi = rssi;
+            devicesByAddress.put(device.getAddress(), entry);
+            leDevices.add(entry);
+        } else {
+            entry.rssi += RSSI_SMOOTHING * (rssi - entry.rssi);
+        }
+        entry.device = device;
+        entry.lastSeenMillis = Math.max(entry.lastSeenMillis, timeMillis);
+    }
+
+    /**
+     * Removes the devices not seen for {@link #STALE_MILLIS}.
+     *
+     * @return true if any device was removed.
+     */
+    public boolean evictStale(long nowMillis) {
+        boolean evicted = false;
+        for (Iterator<Entry> i = leDevices.iterator(); i.hasNext(); ) {
+            final Entry entry = i.next();
+            if (nowMillis - entry.lastSeenMillis > STALE_MILLIS) {
+                i.remove();
+                devicesByAddress.remove(entry.device.getAddress());
+                evicted = true;
+            }
         }
-        rssiMap.put(device, rssi);
+        return evicted;
     }
 
     public BluetoothDevice getDevice(int position) {
-        return leDevices.get(position);
+        return leDevices.get(position).device;
     }
 
     public void clear() {
         leDevices.clear();
+        devicesByAddress.clear();
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        Collections.sort(leDevices, BY_RSSI);
+        super.notifyDataSetChanged();
     }
 
     @Override
@@ -50,7 +121,7 @@ public class BleDevicesAdapter extends BaseAdapter {
 
     @Override
     public Object getItem(int i) {
-        return leDevices.get(i);
+        return leDevices.get(i).device;
     }
 
     @Override
@@ -73,14 +144,15 @@ public class BleDevicesAdapter extends BaseAdapter {
             viewHolder = (ViewHolder) view.getTag();
         }
 
-        BluetoothDevice device = leDevices.get(i);
+        final Entry entry = leDevices.get(i);
+        final BluetoothDevice device = entry.device;
         final String deviceName = device.getName();
         if (deviceName != null && deviceName.length() > 0)
             viewHolder.deviceName.setText(deviceName);
         else
             viewHolder.deviceName.setText(R.string.unknown_device);
         viewHolder.deviceAddress.setText(device.getAddress());
-        viewHolder.deviceRssi.setText(""+rssiMap.get(device)+" dBm");
+        viewHolder.deviceRssi.setText(entry.getSortRssi() + " dBm");
 
         return view;
     }
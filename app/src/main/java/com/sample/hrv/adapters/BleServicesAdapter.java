@@ -159,7 +159,7 @@ public class BleServicesAdapter extends BaseExpandableListAdapter {
 		final BluetoothGattService item = getGroup(groupPosition);
 
 		final String uuid = item.getUuid().toString();
-		final BleSensor<?> sensor = BleSensors.getSensor(uuid);
+		final BleSensor<?> sensor = BleSensors.getSensor(item.getUuid());
 		final BleInfoService infoService = BleInfoServices.getService(uuid);
 
 		final String serviceName;
@@ -205,8 +205,7 @@ public class BleServicesAdapter extends BaseExpandableListAdapter {
 								return;
 
 							final BleSensor<?> sensor = BleSensors
-									.getSensor(holder.service.getUuid()
-											.toString());
+									.getSensor(holder.service.getUuid());
 							if (sensor == null)
 								return;
 
@@ -236,7 +235,7 @@ public class BleServicesAdapter extends BaseExpandableListAdapter {
 		holder.service = item.getService();
 
 		final String serviceUUID = item.getService().getUuid().toString();
-		final BleSensor<?> sensor = BleSensors.getSensor(serviceUUID);
+		final BleSensor<?> sensor = BleSensors.getSensor(item.getService().getUuid());
 		final BleInfoService infoService = BleInfoServices
 				.getService(serviceUUID);
 
@@ -0,0 +1,254 @@
+package com.sample.hrv.analysis;
+
+/**
+ * Frequency-domain HRV (LF and HF band power) over a sliding window.
+ *
+ * The RR tachogram is linearly resampled to an even grid, the samples go into a ring
+ * buffer and every {@code hopSamples} new samples the power spectral density of the
+ * whole window is recomputed with a detrended, Hann windowed radix-2 FFT. All work
+ * buffers and twiddle tables are allocated in the constructor.
+ *
+ * Not thread safe.
+ */
+public class FrequencyDomainHrv {
+
+    public static final double LF_LOW_HZ = 0.04;
+    public static final double LF_HIGH_HZ = 0.15;
+    public static final double HF_LOW_HZ = 0.15;
+    public static final double HF_HIGH_HZ = 0.40;
+
+    private final double sampleRateHz;
+    private final double periodMillis;
+    private final int size;
+    private final int hop;
+
+    // Resampled tachogram, in milliseconds.
+    private final double[] samples;
+    private long sampleCount;
+    private int samplesSinceUpdate;
+
+    // Last beat of the tachogram and the next grid point to fill.
+    private boolean started;
+    private double lastBeatMillis;
+    private double lastRr;
+    private double nextSampleMillis;
+
+    // FFT work buffers and tables.
+    private final double[] re;
+    private final double[] im;
+    private final double[] window;
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] reversed;
+    private final double psdScale;
+
+    private boolean valid;
+    private double lfPower;
+    private double hfPower;
+    private long updates;
+    private long lastUpdateNanos;
+
+    /**
+     * @param sampleRateHz resampling rate of the tachogram, typically 4 Hz.
+     * @param windowSamples number of samples in the analysis window, a power of two.
+     * @param hopSamples number of new samples between two spectrum updates.
+     */
+    public FrequencyDomainHrv(double sampleRateHz, int windowSamples, int hopSamples) {
+        if (windowSamples < 2 || (windowSamples & (windowSamples - 1)) != 0)
+            throw new IllegalArgumentException("Window size must be a power of two: " + windowSamples);
+        if (hopSamples < 1 || hopSamples > windowSamples)
+            throw new IllegalArgumentException("Invalid hop size: " + hopSamples);
+
+        this.sampleRateHz = sampleRateHz;
+        this.periodMillis = 1000.0 / sampleRateHz;
+        this.size = windowSamples;
+        this.hop = hopSamples;
+
+        samples = new double[size];
+        re = new double[size];
+        im = new double[size];
+        window = new double[size];
+        cos = new double[size / 2];
+        sin = new double[size / 2];
+        reversed = new int[size];
+
+        double windowEnergy = 0;
+        for (int i = 0; i < size; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (size - 1));
+            windowEnergy += window[i] * window[i];
+        }
+        // One-sided PSD in ms^2/Hz.
+        psdScale = 2.0 / (sampleRateHz * windowEnergy);
+
+        for (int i = 0; i < size / 2; i++) {
+            cos[i] = Math.cos(-2 * Math.PI * i / size);
+            sin[i] = Math.sin(-2 * Math.PI * i / size);
+        }
+
+        final int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    public double getSampleRateHz() {
+        return sampleRateHz;
+    }
+
+    public int getWindowSamples() {
+        return size;
+    }
+
+    public int getHopSamples() {
+        return hop;
+    }
+
+    /**
+     * Adds the next RR interval of the tachogram.
+     *
+     * @return true if the spectrum was recomputed.
+     */
+    public boolean add(int rrMillis) {
+        if (rrMillis <= 0)
+            return false;
+
+        if (!started) {
+            started = true;
+            lastBeatMillis = 0;
+            lastRr = rrMillis;
+            nextSampleMillis = 0;
+            push(rrMillis);
+            nextSampleMillis += periodMillis;
+            return maybeUpdate();
+        }
+
+        final double beatMillis = lastBeatMillis + rrMillis;
+        while (nextSampleMillis <= beatMillis) {
+            final double fraction = (nextSampleMillis - lastBeatMillis) / rrMillis;
+            push(lastRr + (rrMillis - lastRr) * fraction);
+            nextSampleMillis += periodMillis;
+        }
+        lastBeatMillis = beatMillis;
+        lastRr = rrMillis;
+        return maybeUpdate();
+    }
+
+    /**
+     * Drops the tachogram, e.g. after a gap in the data. The spectrum becomes invalid
+     * until a full window has been collected again.
+     */
+    public void clear() {
+        started = false;
+        sampleCount = 0;
+        samplesSinceUpdate = 0;
+        valid = false;
+        lfPower = 0;
+        hfPower = 0;
+    }
+
+    public void snapshot(HrvSnapshot out) {
+        out.spectrumValid = valid;
+        out.lfPower = lfPower;
+        out.hfPower = hfPower;
+        out.lfHfRatio = hfPower > 0 ? lfPower / hfPower : 0;
+    }
+
+    public long getUpdateCount() {
+        return updates;
+    }
+
+    /**
+     * @return duration of the last spectrum computation.
+     */
+    public long getLastUpdateNanos() {
+        return lastUpdateNanos;
+    }
+
+    private void push(double value) {
+        samples[(int) (sampleCount % size)] = value;
+        sampleCount++;
+        samplesSinceUpdate++;
+    }
+
+    private boolean maybeUpdate() {
+        if (sampleCount < size || samplesSinceUpdate < hop)
+            return false;
+        samplesSinceUpdate = 0;
+
+        final long start = System.nanoTime();
+        update();
+        lastUpdateNanos = System.nanoTime() - start;
+        updates++;
+        return true;
+    }
+
+    private void update() {
+        // Copy the ring in time order and remove the linear trend.
+        final int oldest = (int) (sampleCount % size);
+        double sumY = 0;
+        double sumXY = 0;
+        for (int i = 0; i < size; i++) {
+            final double y = samples[(oldest + i) % size];
+            re[i] = y;
+            sumY += y;
+            sumXY += i * y;
+        }
+        final double n = size;
+        final double sumX = n * (n - 1) / 2;
+        final double sumXX = (n - 1) * n * (2 * n - 1) / 6;
+        final double slope = (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+        final double intercept = (sumY - slope * sumX) / n;
+
+        // Detrend and window into im[], then scatter back in bit-reversed order.
+        for (int i = 0; i < size; i++) {
+            im[i] = (re[i] - (intercept + slope * i)) * window[i];
+        }
+        for (int i = 0; i < size; i++) {
+            re[reversed[i]] = im[i];
+        }
+        for (int i = 0; i < size; i++) {
+            im[i] = 0;
+        }
+
+        fft();
+
+        final double resolution = sampleRateHz / size;
+        double lf = 0;
+        double hf = 0;
+        for (int k = 1; k < size / 2; k++) {
+            final double frequency = k * resolution;
+            if (frequency >= HF_HIGH_HZ)
+                break;
+            final double power = (re[k] * re[k] + im[k] * im[k]) * psdScale * resolution;
+            if (frequency >= LF_LOW_HZ && frequency < LF_HIGH_HZ)
+                lf += power;
+            else if (frequency >= HF_LOW_HZ)
+                hf += power;
+        }
+        lfPower = lf;
+        hfPower = hf;
+        valid = true;
+    }
+
+    // In-place iterative radix-2 FFT on input already in bit-reversed order.
+    private void fft() {
+        for (int length = 2; length <= size; length <<= 1) {
+            final int half = length >> 1;
+            final int step = size / length;
+            for (int start = 0; start < size; start += length) {
+                for (int j = 0; j < half; j++) {
+                    final double wr = cos[j * step];
+                    final double wi = sin[j * step];
+                    final int a = start + j;
+                    final int b = a + half;
+                    final double tr = re[b] * wr - im[b] * wi;
+                    final double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.sample.hrv.analysis;
+
+/**
+ * Thread safe front of the HRV pipeline. Raw RR intervals go through the
+ * {@link RrArtifactFilter} and the corrected series feeds the HRV engines.
+ *
+ * RR intervals are added from the Bluetooth callback thread while snapshots are taken
+ * from the UI thread; the only time a reader can wait is while a spectrum update is in
+ * progress, which takes microseconds.
+ */
+public class HrvAnalyzer {
+
+    private final RrArtifactFilter filter;
+    private final TimeDomainHrv timeDomain;
+    private final FrequencyDomainHrv frequencyDomain;
+    // Corrected RR intervals of the whole session, 0.5% accuracy between 200 ms and 4 s.
+    private final QuantileSketch sessionRr = new QuantileSketch(0.005, 200, 4000);
+
+    private RrArtifactFilter.Listener beatListener;
+
+    private final RrArtifactFilter.Listener corrected = new RrArtifactFilter.Listener() {
+        @Override
+        public void onBeat(int rrMillis, int flags) {
+            timeDomain.add(rrMillis);
+            frequencyDomain.add(rrMillis);
+            sessionRr.add(rrMillis);
+            if (beatListener != null)
+                beatListener.onBeat(rrMillis, flags);
+        }
+    };
+
+    /**
+     * @param medianWindow beats the artifact filter takes its reference median from.
+     * @param artifactThreshold relative deviation from the median tolerated for a normal beat.
+     */
+    public HrvAnalyzer(TimeDomainHrv timeDomain, FrequencyDomainHrv frequencyDomain,
+                       int medianWindow, double artifactThreshold) {
+        this.timeDomain = timeDomain;
+        this.frequencyDomain = frequencyDomain;
+        this.filter = new RrArtifactFilter(medianWindow, artifactThreshold, corrected);
+    }
+
+    /**
+     * Sets a listener for the corrected RR series and its quality flags. It is called
+     * on the thread adding the intervals, with this analyzer locked.
+     */
+    public synchronized void setBeatListener(RrArtifactFilter.Listener listener) {
+        beatListener = listener;
+    }
+
+    public synchronized void addRr(int rrMillis) {
+        filter.add(rrMillis);
+    }
+
+    /**
+     * Marks missing data, e.g. while the sensor reconnects. The held back beat is judged
+     * without its successor, no successive difference is taken across the gap and the
+     * tachogram of the spectrum starts over. The session statistics continue.
+     */
+    public synchronized void gap() {
+        filter.flush();
+        timeDomain.gap();
+        frequencyDomain.clear();
+    }
+
+    public synchronized void clear() {
+        filter.clear();
+        timeDomain.clear();
+        frequencyDomain.clear();
+        sessionRr.clear();
+    }
+
+    public synchronized void snapshot(HrvSnapshot out) {
+        timeDomain.snapshot(out);
+        frequencyDomain.snapshot(out);
+        out.processedBeats = filter.getBeatCount();
+        out.correctedBeats = filter.getCorrectedBeatCount();
+        out.sessionRrP5 = sessionRr.quantile(0.05);
+        out.sessionRrMedian = sessionRr.quantile(0.5);
+        out.sessionRrP95 = sessionRr.quantile(0.95);
+    }
+}
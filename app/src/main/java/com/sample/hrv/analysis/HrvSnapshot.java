@@ -0,0 +1,140 @@
+package com.sample.hrv.analysis;
+
+/**
+ * Point-in-time copy of the HRV statistics. Instances are meant to be reused by
+ * the reader and refilled with {@code snapshot(...)} calls.
+ */
+public class HrvSnapshot {
+    int beats;
+    long windowMillis;
+    double meanRr;
+    double meanHeartRate;
+    int minRr;
+    int maxRr;
+    double sdnn;
+    double rmssd;
+    double pnn50;
+    double sd1;
+    double sd2;
+    boolean spectrumValid;
+    double lfPower;
+    double hfPower;
+    double lfHfRatio;
+    long processedBeats;
+    long correctedBeats;
+    double sessionRrP5;
+    double sessionRrMedian;
+    double sessionRrP95;
+
+    public int getBeats() {
+        return beats;
+    }
+
+    /**
+     * @return sum of the RR intervals in the window, i.e. the time it actually covers.
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public double getMeanRr() {
+        return meanRr;
+    }
+
+    public double getMeanHeartRate() {
+        return meanHeartRate;
+    }
+
+    public int getMinRr() {
+        return minRr;
+    }
+
+    public int getMaxRr() {
+        return maxRr;
+    }
+
+    public double getSdnn() {
+        return sdnn;
+    }
+
+    public double getRmssd() {
+        return rmssd;
+    }
+
+    /**
+     * @return percentage of successive differences larger than 50 ms.
+     */
+    public double getPnn50() {
+        return pnn50;
+    }
+
+    /**
+     * @return short-term variability, the spread of the Poincare plot across its line of
+     *         identity, in ms.
+     */
+    public double getSd1() {
+        return sd1;
+    }
+
+    /**
+     * @return long-term variability, the spread of the Poincare plot along its line of
+     *         identity, in ms.
+     */
+    public double getSd2() {
+        return sd2;
+    }
+
+    /**
+     * @return false until a full spectral window has been collected.
+     */
+    public boolean isSpectrumValid() {
+        return spectrumValid;
+    }
+
+    /**
+     * @return power in the 0.04-0.15 Hz band, in ms^2.
+     */
+    public double getLfPower() {
+        return lfPower;
+    }
+
+    /**
+     * @return power in the 0.15-0.4 Hz band, in ms^2.
+     */
+    public double getHfPower() {
+        return hfPower;
+    }
+
+    public double getLfHfRatio() {
+        return lfHfRatio;
+    }
+
+    /**
+     * @return beats that went through the artifact filter since the analysis started.
+     */
+    public long getProcessedBeats() {
+        return processedBeats;
+    }
+
+    /**
+     * @return beats the artifact filter had to correct since the analysis started.
+     */
+    public long getCorrectedBeats() {
+        return correctedBeats;
+    }
+
+    /**
+     * @return 5th percentile of the corrected RR intervals since the analysis started.
+     */
+    public double getSessionRrP5() {
+        return sessionRrP5;
+    }
+
+    public double getSessionRrMedian() {
+        return sessionRrMedian;
+    }
+
+    public double getSessionRrP95() {
+        return sessionRrP95;
+    }
+}
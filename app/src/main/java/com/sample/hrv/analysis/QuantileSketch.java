@@ -0,0 +1,94 @@
+package com.sample.hrv.analysis;
+
+/**
+ * Fixed-memory quantile sketch for positive values over an unbounded stream, e.g. all
+ * RR intervals of a multi-hour session.
+ *
+ * Values are counted in logarithmically sized buckets so that every quantile is
+ * returned with a relative error of at most {@code relativeAccuracy}. The number of
+ * buckets only depends on the accuracy and the value range given at construction;
+ * values outside the range are clamped into the first or last bucket.
+ *
+ * Not thread safe.
+ */
+public class QuantileSketch {
+
+    private final double minValue;
+    private final double maxValue;
+    private final double gamma;
+    private final double logGamma;
+    private final long[] counts;
+    private long total;
+
+    /**
+     * @param relativeAccuracy maximum relative error of the returned quantiles, e.g. 0.01.
+     * @param minValue smallest value that is resolved, must be positive.
+     * @param maxValue largest value that is resolved.
+     */
+    public QuantileSketch(double relativeAccuracy, double minValue, double maxValue) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1)
+            throw new IllegalArgumentException("Invalid accuracy " + relativeAccuracy);
+        if (minValue <= 0 || maxValue <= minValue)
+            throw new IllegalArgumentException("Invalid range " + minValue + ".." + maxValue);
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.counts = new long[bucket(maxValue) + 1];
+    }
+
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public void add(double value) {
+        counts[bucket(value)]++;
+        total++;
+    }
+
+    public void clear() {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = 0;
+        total = 0;
+    }
+
+    /**
+     * @return the value at rank {@code floor(q * (count - 1))}, or 0 if nothing was added.
+     */
+    public double quantile(double q) {
+        if (total == 0)
+            return 0;
+        if (q < 0)
+            q = 0;
+        else if (q > 1)
+            q = 1;
+
+        final long rank = (long) (q * (total - 1));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank)
+                return value(i);
+        }
+        return maxValue;
+    }
+
+    private int bucket(double value) {
+        if (value <= minValue)
+            return 0;
+        if (value >= maxValue)
+            value = maxValue;
+        return (int) Math.ceil(Math.log(value / minValue) / logGamma);
+    }
+
+    // Value with the smallest relative error to everything in bucket i.
+    private double value(int i) {
+        if (i == 0)
+            return minValue;
+        return minValue * Math.pow(gamma, i) * 2 / (gamma + 1);
+    }
+}
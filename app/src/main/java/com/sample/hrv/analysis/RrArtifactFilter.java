@@ -0,0 +1,194 @@
+package com.sample.hrv.analysis;
+
+/**
+ * Streaming ectopic beat and artifact correction for RR intervals.
+ *
+ * Every interval is compared against the median of the last accepted intervals. An
+ * interval that deviates by more than the threshold is classified with one beat of
+ * look-ahead as
+ * <ul>
+ *     <li>missed beat(s): about a multiple of the median, split into equal parts,</li>
+ *     <li>extra beat: short, and together with the next interval about the median,
+ *         merged with the next interval,</li>
+ *     <li>ectopic beat: anything else, replaced by interpolating its neighbours.</li>
+ * </ul>
+ * Corrected intervals are passed to the {@link Listener} together with quality flags,
+ * so the output lags the input by at most one beat. Memory is fixed at construction
+ * and the median costs O(log n) per beat.
+ *
+ * Only normal, split and merged intervals enter the history; interpolated ones would
+ * hold the median where it is. After {@link #MAX_REJECTED} ectopic or missed beats in
+ * a row the median is taken to be stale, e.g. after a sustained change of the heart
+ * rate, and the history restarts from the intervals of that run.
+ *
+ * Not thread safe.
+ */
+public class RrArtifactFilter {
+
+    public static final int FLAG_NORMAL = 0;
+    // Not enough history yet to judge the interval.
+    public static final int FLAG_UNVERIFIED = 0x01;
+    // Interpolated in place of an ectopic beat or artifact.
+    public static final int FLAG_ECTOPIC = 0x02;
+    // Part of an interval that was split because of a missed beat.
+    public static final int FLAG_MISSED = 0x04;
+    // Two intervals merged because of a spurious extra beat.
+    public static final int FLAG_EXTRA = 0x08;
+
+    public interface Listener {
+        void onBeat(int rrMillis, int flags);
+    }
+
+    // Number of accepted beats needed before intervals are judged.
+    private static final int MIN_HISTORY = 5;
+    private static final int MAX_MISSED_BEATS = 3;
+    // Longest interval the reference median resolves, longer ones are clamped.
+    private static final int MAX_RR_MILLIS = 4095;
+    // Ectopic or missed beats in a row after which the history restarts.
+    static final int MAX_REJECTED = 8;
+
+    private final double threshold;
+    private final Listener listener;
+
+    // Last accepted intervals.
+    private final SlidingOrderStatistics history;
+
+    // Raw intervals of the current run of ectopic or missed beats.
+    private final int[] rejected = new int[MAX_REJECTED];
+    private int rejectedCount;
+
+    private boolean hasPending;
+    private int pending;
+    private int previous;
+
+    private long beats;
+    private long correctedBeats;
+
+    /**
+     * @param medianWindow number of accepted beats the reference median is taken from.
+     * @param threshold maximum relative deviation from the median of a normal beat, e.g. 0.2.
+     */
+    public RrArtifactFilter(int medianWindow, double threshold, Listener listener) {
+        if (medianWindow < MIN_HISTORY)
+            throw new IllegalArgumentException("Median window must be at least " + MIN_HISTORY);
+        this.threshold = threshold;
+        this.listener = listener;
+        history = new SlidingOrderStatistics(medianWindow, MAX_RR_MILLIS);
+    }
+
+    public void add(int rrMillis) {
+        if (rrMillis <= 0)
+            return;
+
+        if (!hasPending) {
+            pending = rrMillis;
+            hasPending = true;
+            return;
+        }
+
+        if (classify(pending, rrMillis, true)) {
+            hasPending = false;
+        } else {
+            pending = rrMillis;
+        }
+    }
+
+    /**
+     * Emits the interval held back for look-ahead, judging it without its successor.
+     */
+    public void flush() {
+        if (hasPending) {
+            classify(pending, 0, false);
+            hasPending = false;
+        }
+    }
+
+    /**
+     * Forgets the history, e.g. after a gap in the data. A held back interval is dropped.
+     */
+    public void clear() {
+        hasPending = false;
+        history.clear();
+        rejectedCount = 0;
+        previous = 0;
+    }
+
+    public long getBeatCount() {
+        return beats;
+    }
+
+    public long getCorrectedBeatCount() {
+        return correctedBeats;
+    }
+
+    public int getMedian() {
+        return history.median();
+    }
+
+    // Returns true if the look-ahead interval was consumed as well.
+    private boolean classify(int rr, int next, boolean hasNext) {
+        if (history.size() < MIN_HISTORY) {
+            accept(rr, FLAG_UNVERIFIED);
+            return false;
+        }
+
+        final int median = getMedian();
+        final double tolerance = threshold * median;
+        if (Math.abs(rr - median) <= tolerance) {
+            accept(rr, FLAG_NORMAL);
+            return false;
+        }
+
+        if (rr > median) {
+            final int parts = (int) Math.round((double) rr / median);
+            if (parts >= 2 && parts <= MAX_MISSED_BEATS + 1
+                    && Math.abs(rr - parts * median) <= tolerance * parts) {
+                int remaining = rr;
+                for (int i = parts; i > 0; i--) {
+                    final int part = remaining / i;
+                    accept(part, FLAG_MISSED);
+                    remaining -= part;
+                }
+                reject(rr);
+                return false;
+            }
+        } else if (hasNext && Math.abs(rr + next - median) <= tolerance) {
+            accept(rr + next, FLAG_EXTRA);
+            return true;
+        }
+
+        final boolean nextIsNormal = hasNext && Math.abs(next - median) <= tolerance;
+        final int replacement = nextIsNormal && previous > 0 ? (previous + next) / 2 : median;
+        emit(replacement, FLAG_ECTOPIC);
+        reject(rr);
+        return false;
+    }
+
+    private void accept(int rr, int flags) {
+        if ((flags & FLAG_MISSED) == 0)
+            rejectedCount = 0;
+        history.add(rr);
+        emit(rr, flags);
+    }
+
+    private void emit(int rr, int flags) {
+        beats++;
+        if ((flags & (FLAG_ECTOPIC | FLAG_MISSED | FLAG_EXTRA)) != 0)
+            correctedBeats++;
+        previous = rr;
+        listener.onBeat(rr, flags);
+    }
+
+    // Counts an interval that did not match the median, restarting the history from the
+    // run once it is long enough.
+    private void reject(int rr) {
+        rejected[rejectedCount++] = rr;
+        if (rejectedCount < MAX_REJECTED)
+            return;
+        history.clear();
+        for (int i = 0; i < rejectedCount; i++) {
+            history.add(rejected[i]);
+        }
+        rejectedCount = 0;
+    }
+}
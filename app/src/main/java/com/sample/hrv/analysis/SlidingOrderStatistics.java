@@ -0,0 +1,147 @@
+package com.sample.hrv.analysis;
+
+/**
+ * Median, MAD and quantiles over a sliding window of the last {@code windowSize} int
+ * values, e.g. RR intervals in milliseconds.
+ *
+ * Values are counted in a Fenwick tree over the value domain {@code [0, maxValue]}
+ * (larger values are clamped), so adding a value, evicting the oldest one and selecting
+ * the k-th smallest are all O(log maxValue), and the MAD is O(log^2 maxValue). Nothing
+ * is boxed or allocated after construction.
+ *
+ * Not thread safe.
+ */
+public class SlidingOrderStatistics {
+
+    private final int maxValue;
+    private final int[] window;
+    private final int[] tree;
+    private final int highestBit;
+    private int count;
+    private int next;
+
+    public SlidingOrderStatistics(int windowSize, int maxValue) {
+        if (windowSize < 1 || maxValue < 1)
+            throw new IllegalArgumentException("Invalid window " + windowSize + " or range " + maxValue);
+        this.maxValue = maxValue;
+        this.window = new int[windowSize];
+        // Value v is stored at tree index v + 1.
+        this.tree = new int[maxValue + 2];
+        this.highestBit = Integer.highestOneBit(maxValue + 1);
+    }
+
+    public int getWindowSize() {
+        return window.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Adds a value, evicting the oldest one if the window is full.
+     */
+    public void add(int value) {
+        if (value < 0)
+            value = 0;
+        else if (value > maxValue)
+            value = maxValue;
+
+        if (count == window.length) {
+            update(window[next], -1);
+        } else {
+            count++;
+        }
+        window[next] = value;
+        next = (next + 1) % window.length;
+        update(value, 1);
+    }
+
+    public void clear() {
+        for (int i = 0; i < tree.length; i++)
+            tree[i] = 0;
+        count = 0;
+        next = 0;
+    }
+
+    /**
+     * @return the k-th smallest value of the window, k starting from 0.
+     */
+    public int select(int k) {
+        if (k < 0 || k >= count)
+            throw new IndexOutOfBoundsException("Rank " + k + " of " + count);
+        // Largest index whose prefix count is at most k, descending the tree bit by bit.
+        int position = 0;
+        int remaining = k;
+        for (int bit = highestBit; bit > 0; bit >>= 1) {
+            final int candidate = position + bit;
+            if (candidate < tree.length && tree[candidate] <= remaining) {
+                position = candidate;
+                remaining -= tree[candidate];
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return the value at rank {@code floor(q * (size - 1))}, or 0 for an empty window.
+     */
+    public int quantile(double q) {
+        if (count == 0)
+            return 0;
+        if (q <= 0)
+            return select(0);
+        if (q >= 1)
+            return select(count - 1);
+        return select((int) (q * (count - 1)));
+    }
+
+    /**
+     * @return the lower median, or 0 for an empty window.
+     */
+    public int median() {
+        return count == 0 ? 0 : select((count - 1) / 2);
+    }
+
+    /**
+     * @return the median absolute deviation from the median, or 0 for an empty window.
+     */
+    public int mad() {
+        if (count == 0)
+            return 0;
+        final int median = median();
+        final int needed = (count - 1) / 2 + 1;
+        // Smallest distance d with at least 'needed' values in [median - d, median + d].
+        int low = 0;
+        int high = maxValue;
+        while (low < high) {
+            final int d = (low + high) >>> 1;
+            if (countBetween(median - d, median + d) >= needed)
+                high = d;
+            else
+                low = d + 1;
+        }
+        return low;
+    }
+
+    private int countBetween(int from, int to) {
+        if (from < 0)
+            from = 0;
+        if (to > maxValue)
+            to = maxValue;
+        return prefix(to) - prefix(from - 1);
+    }
+
+    // Number of values <= value.
+    private int prefix(int value) {
+        int sum = 0;
+        for (int i = value + 1; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+
+    private void update(int value, int delta) {
+        for (int i = value + 1; i < tree.length; i += i & -i)
+            tree[i] += delta;
+    }
+}
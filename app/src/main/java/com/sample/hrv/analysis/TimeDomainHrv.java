@@ -0,0 +1,230 @@
+package com.sample.hrv.analysis;
+
+/**
+ * Streaming time-domain HRV over a sliding window of RR intervals.
+ *
+ * The window holds at most {@code maxBeats} intervals whose sum does not exceed
+ * {@code windowMillis}. Running integer sums are kept for the intervals and their
+ * successive differences, and monotonic deques track min/max, so adding a beat costs
+ * amortized constant time and nothing is allocated after construction.
+ *
+ * The Poincare descriptors come from the same pairs of adjacent beats: SD1 is the
+ * spread of their differences and SD2 the spread of their sums, each divided by the
+ * square root of two, so running sums of both series are kept as well.
+ *
+ * A {@link #gap()} in the data leaves the window intact but no successive difference is
+ * taken across it, so RMSSD and pNN50 only see adjacent beats.
+ *
+ * Not thread safe.
+ */
+public class TimeDomainHrv {
+
+    // Successive difference threshold for pNN50.
+    private static final int NN50_MILLIS = 50;
+
+    private final int capacity;
+    private final long windowMillis;
+
+    // Ring buffer of RR intervals in milliseconds, indexed by beat sequence number.
+    private final int[] rr;
+    // Whether the beat at the same index follows a gap.
+    private final boolean[] afterGap;
+    private boolean gapPending;
+    private long first;
+    private long next;
+
+    private long sumRr;
+    private long sumRrSquared;
+    private long sumDiff;
+    private long sumDiffSquared;
+    // Sums of adjacent beats, the other axis of the Poincare plot.
+    private long sumPair;
+    private long sumPairSquared;
+    private int diffs;
+    private int nn50;
+
+    // Sequence numbers of window minima/maxima candidates, as ring buffers.
+    private final long[] minQueue;
+    private final long[] maxQueue;
+    private int minHead, minSize;
+    private int maxHead, maxSize;
+
+    public TimeDomainHrv(int maxBeats, long windowMillis) {
+        if (maxBeats < 2)
+            throw new IllegalArgumentException("Window must hold at least two beats");
+        this.capacity = maxBeats;
+        this.windowMillis = windowMillis;
+        this.rr = new int[maxBeats];
+        this.afterGap = new boolean[maxBeats];
+        this.minQueue = new long[maxBeats];
+        this.maxQueue = new long[maxBeats];
+    }
+
+    public int getMaxBeats() {
+        return capacity;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int size() {
+        return (int) (next - first);
+    }
+
+    /**
+     * Adds an RR interval, evicting the oldest beats that no longer fit the window.
+     */
+    public void add(int rrMillis) {
+        if (rrMillis <= 0)
+            return;
+
+        while (size() >= capacity || (size() > 0 && sumRr + rrMillis > windowMillis)) {
+            evict();
+        }
+
+        if (size() > 0 && !gapPending) {
+            addPair(at(next - 1), rrMillis);
+        }
+
+        rr[index(next)] = rrMillis;
+        afterGap[index(next)] = gapPending;
+        gapPending = false;
+        sumRr += rrMillis;
+        sumRrSquared += (long) rrMillis * rrMillis;
+
+        while (minSize > 0 && at(minQueue[(minHead + minSize - 1) % capacity]) >= rrMillis)
+            minSize--;
+        minQueue[(minHead + minSize++) % capacity] = next;
+
+        while (maxSize > 0 && at(maxQueue[(maxHead + maxSize - 1) % capacity]) <= rrMillis)
+            maxSize--;
+        maxQueue[(maxHead + maxSize++) % capacity] = next;
+
+        next++;
+    }
+
+    /**
+     * Marks missing data before the next beat.
+     */
+    public void gap() {
+        gapPending = true;
+    }
+
+    public void clear() {
+        first = next;
+        gapPending = false;
+        sumRr = 0;
+        sumRrSquared = 0;
+        sumDiff = 0;
+        sumDiffSquared = 0;
+        sumPair = 0;
+        sumPairSquared = 0;
+        diffs = 0;
+        nn50 = 0;
+        minSize = 0;
+        maxSize = 0;
+    }
+
+    /**
+     * Writes the statistics of the current window into {@code out}.
+     */
+    public void snapshot(HrvSnapshot out) {
+        final int n = size();
+        out.beats = n;
+        out.windowMillis = sumRr;
+        if (n == 0) {
+            out.meanRr = 0;
+            out.meanHeartRate = 0;
+            out.minRr = 0;
+            out.maxRr = 0;
+            out.sdnn = 0;
+            out.rmssd = 0;
+            out.pnn50 = 0;
+            out.sd1 = 0;
+            out.sd2 = 0;
+            return;
+        }
+
+        final double mean = (double) sumRr / n;
+        out.meanRr = mean;
+        out.meanHeartRate = 60000.0 / mean;
+        out.minRr = at(minQueue[minHead]);
+        out.maxRr = at(maxQueue[maxHead]);
+
+        if (n < 2) {
+            out.sdnn = 0;
+            out.rmssd = 0;
+            out.pnn50 = 0;
+            out.sd1 = 0;
+            out.sd2 = 0;
+            return;
+        }
+
+        final double variance = (sumRrSquared - (double) sumRr * sumRr / n) / (n - 1);
+        out.sdnn = variance > 0 ? Math.sqrt(variance) : 0;
+        out.rmssd = diffs > 0 ? Math.sqrt((double) sumDiffSquared / diffs) : 0;
+        out.pnn50 = diffs > 0 ? 100.0 * nn50 / diffs : 0;
+        out.sd1 = Math.sqrt(variance(sumDiff, sumDiffSquared, diffs) / 2);
+        out.sd2 = Math.sqrt(variance(sumPair, sumPairSquared, diffs) / 2);
+    }
+
+    private static double variance(long sum, long sumSquared, int n) {
+        if (n < 2)
+            return 0;
+        final double variance = (sumSquared - (double) sum * sum / n) / (n - 1);
+        return variance > 0 ? variance : 0;
+    }
+
+    private void evict() {
+        final int oldest = at(first);
+        sumRr -= oldest;
+        sumRrSquared -= (long) oldest * oldest;
+        if (size() > 1 && !afterGap[index(first + 1)]) {
+            removePair(oldest, at(first + 1));
+        }
+
+        if (minSize > 0 && minQueue[minHead] == first) {
+            minHead = (minHead + 1) % capacity;
+            minSize--;
+        }
+        if (maxSize > 0 && maxQueue[maxHead] == first) {
+            maxHead = (maxHead + 1) % capacity;
+            maxSize--;
+        }
+
+        first++;
+    }
+
+    private void addPair(int rr, int nextRr) {
+        final int diff = nextRr - rr;
+        final int pair = nextRr + rr;
+        sumDiff += diff;
+        sumDiffSquared += (long) diff * diff;
+        sumPair += pair;
+        sumPairSquared += (long) pair * pair;
+        diffs++;
+        if (Math.abs(diff) > NN50_MILLIS)
+            nn50++;
+    }
+
+    private void removePair(int rr, int nextRr) {
+        final int diff = nextRr - rr;
+        final int pair = nextRr + rr;
+        sumDiff -= diff;
+        sumDiffSquared -= (long) diff * diff;
+        sumPair -= pair;
+        sumPairSquared -= (long) pair * pair;
+        diffs--;
+        if (Math.abs(diff) > NN50_MILLIS)
+            nn50--;
+    }
+
+    private int at(long sequence) {
+        return rr[index(sequence)];
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+}
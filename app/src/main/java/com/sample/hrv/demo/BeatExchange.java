@@ -0,0 +1,81 @@
+package com.sample.hrv.demo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest beat from the UI thread to the GL thread without locks. A triple
+ * buffer: the writer fills its own record and swaps it with the ready one, the reader
+ * swaps its own record with the ready one if a newer beat was published. Neither side
+ * ever sees a record the other one is writing, and nothing is allocated after
+ * construction.
+ *
+ * There must be a single writer and a single reader thread. Beats published between
+ * two reads are overwritten, the reader always gets the latest one.
+ */
+class BeatExchange {
+    // Set on the ready index while it holds a beat the reader has not taken.
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    /**
+     * One heart rate measurement, timed on the {@code SystemClock.elapsedRealtime()}
+     * clock of the sensor events.
+     */
+    static class Beat {
+        private long sequence;
+        private long timeMillis;
+        private int heartRate;
+        private float interval;
+
+        /**
+         * @return the number of beats published before this one and itself, 0 before the
+         *         first beat.
+         */
+        long getSequence() {
+            return sequence;
+        }
+
+        long getTimeMillis() {
+            return timeMillis;
+        }
+
+        int getHeartRate() {
+            return heartRate;
+        }
+
+        float getInterval() {
+            return interval;
+        }
+    }
+
+    private final Beat[] beats = { new Beat(), new Beat(), new Beat() };
+    private final AtomicInteger ready = new AtomicInteger(1);
+    // Owned by the writer.
+    private int writing = 0;
+    private long published;
+    // Owned by the reader.
+    private int reading = 2;
+
+    /**
+     * Publishes a beat. Called on the writer thread only.
+     */
+    void publish(long timeMillis, int heartRate, float interval) {
+        final Beat beat = beats[writing];
+        beat.sequence = ++published;
+        beat.timeMillis = timeMillis;
+        beat.heartRate = heartRate;
+        beat.interval = interval;
+        // The swap publishes the fields written above.
+        writing = ready.getAndSet(writing | FRESH) & INDEX;
+    }
+
+    /**
+     * @return the latest beat, owned by the reader until its next call. Called on the
+     *         reader thread only.
+     */
+    Beat latest() {
+        if ((ready.get() & FRESH) != 0)
+            reading = ready.getAndSet(reading) & INDEX;
+        return beats[reading];
+    }
+}
@@ -0,0 +1,17 @@
+package com.sample.hrv.demo;
+
+import android.opengl.GLSurfaceView;
+
+/**
+ * Renderer of the heart rate demo, fed with every measurement on the UI thread.
+ */
+interface BeatRenderer extends GLSurfaceView.Renderer {
+
+    /**
+     * @param timeMillis time of the measurement on the {@code SystemClock.elapsedRealtime()}
+     *                   clock.
+     * @param heartRate  in beats per minute.
+     * @param interval   last RR interval of the measurement, negative if it had none.
+     */
+    void setBeat(long timeMillis, int heartRate, float interval);
+}
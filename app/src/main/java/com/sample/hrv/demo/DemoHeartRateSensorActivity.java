@@ -1,10 +1,13 @@
 package com.sample.hrv.demo;
 
+import android.app.ActivityManager;
 import android.content.Intent;
 import android.media.AudioManager;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLU;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Environment;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -14,16 +17,11 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executor;
 
 import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
@@ -34,10 +32,15 @@ import android.os.SystemClock;
 import android.widget.Toast;
 
 
+import com.sample.hrv.BleService;
 import com.sample.hrv.R;
+import com.sample.hrv.analysis.HrvSnapshot;
+import com.sample.hrv.event.SensorEvent;
+import com.sample.hrv.event.SensorEventBus;
 import com.sample.hrv.sensor.BleHeartRateSensor;
 import com.sample.hrv.sensor.BleSensor;
-import com.sample.hrv.sensor.HRData;
+import com.sample.hrv.storage.SessionFormat;
+import com.sample.hrv.storage.SessionWriter;
 
 
 //TODO: save readings - format?
@@ -54,25 +57,43 @@ public class DemoHeartRateSensorActivity extends DemoSensorActivity {
 			.getSimpleName();
     private AudioManager mAudioManager;
 	private TextView viewText;
-	private PolygonRenderer renderer;
+	private TextView statsText;
+	private BeatRenderer renderer;
+	private final FrameStats frameStats = new FrameStats();
     private Button rateButton;
     private ImageButton goodButton;
     private ImageButton badButton;
 
-    private List<String> ratingsList;
+    // Commit interval and batch size of the session recording.
+    private static final long SESSION_COMMIT_MILLIS = 1000;
+    private static final int SESSION_BATCH_RECORDS = 1024;
+    // The session is fed on the Bluetooth thread, a few events per measurement.
+    private static final int SESSION_QUEUE_CAPACITY = 64;
+    // The plots are fed on the GL thread, which waits while the activity is paused.
+    private static final int PLOT_QUEUE_CAPACITY = 1024;
+
+    private SensorEventBus eventBus;
+    private SessionWriter session;
+    private SensorEventBus.Subscription sessionSubscription;
+    // Null without OpenGL ES 2.0.
+    private Tachogram tachogram;
+    private PoincarePlot poincarePlot;
+    private SensorEventBus.Subscription tachogramSubscription;
+    private SensorEventBus.Subscription poincareSubscription;
+    private int track;
+
+    private final HrvSnapshot hrv = new HrvSnapshot();
+    // Last RR interval of the current measurement in 1/1024 s, -1 if it had none.
+    private int interval = -1;
 
 	private GLSurfaceView view;
 
-    private boolean isRating;
-
     @Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.demo_opengl);
 		view = (GLSurfaceView) findViewById(R.id.gl);
 
-        isRating = false;
-
         rateButton = (Button) findViewById(R.id.rate_button);
         goodButton = (ImageButton) findViewById(R.id.good_button);
         badButton = (ImageButton) findViewById(R.id.bad_button);
@@ -80,13 +101,12 @@ public class DemoHeartRateSensorActivity extends DemoSensorActivity {
             @Override
             public void onClick(View v) {
                 showToast("Rating Started!");
-                ratingsList = new ArrayList<>();
+                startTrack();
                 playerCMD(KeyEvent.KEYCODE_MEDIA_NEXT);
                 playerCMD(KeyEvent.KEYCODE_MEDIA_PLAY);
                 rateButton.setEnabled(false);
                 goodButton.setEnabled(true);
                 badButton.setEnabled(true);
-                isRating = true;
             }
         });
 
@@ -97,14 +117,14 @@ public class DemoHeartRateSensorActivity extends DemoSensorActivity {
             @Override
             public void onClick(View v) {
                 showToast("Rated Song as GOOD!");
-                finishRating();
+                finishRating(SessionFormat.RATING_GOOD);
             }
         });
         badButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 showToast("Rated Song as BAD!");
-                finishRating();
+                finishRating(SessionFormat.RATING_BAD);
             }
         });
 
@@ -117,53 +137,142 @@ public class DemoHeartRateSensorActivity extends DemoSensorActivity {
         }
 
 		viewText = (TextView) findViewById(R.id.text);
-
-		renderer = new PolygonRenderer(this);
+		statsText = (TextView) findViewById(R.id.frame_stats);
+
+		if (supportsGlEs2()) {
+			view.setEGLContextClientVersion(2);
+			tachogram = new Tachogram();
+			poincarePlot = new PoincarePlot();
+			renderer = new PulseRenderer(view, frameStats, tachogram, poincarePlot);
+		} else {
+			renderer = new PolygonRenderer(this);
+		}
 		view.setRenderer(renderer);
 		//view.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
-		// Render when hear rate data is updated
+		// Render when hear rate data is updated, the pulse renderer asks for the frames
+		// of its animation.
 		view.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 	}
 
-    private void finishRating() {
+	private boolean supportsGlEs2() {
+		final ActivityManager activityManager =
+				(ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+		return activityManager.getDeviceConfigurationInfo().reqGlEsVersion >= 0x20000;
+	}
+
+    @Override
+    protected void onServiceBound(BleService service) {
+        eventBus = service.getEventBus(getDeviceAddress());
+        if (tachogram != null) {
+            // Runs the plots on the GL thread and draws the beats they received.
+            final Executor glExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    view.queueEvent(command);
+                    view.requestRender();
+                }
+            };
+            tachogramSubscription = eventBus.subscribe(tachogram, glExecutor, PLOT_QUEUE_CAPACITY);
+            poincareSubscription = eventBus.subscribe(poincarePlot, glExecutor, PLOT_QUEUE_CAPACITY);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        closeSession();
+        if (eventBus != null) {
+            eventBus.unsubscribe(tachogramSubscription);
+            eventBus.unsubscribe(poincareSubscription);
+        }
+        tachogramSubscription = null;
+        poincareSubscription = null;
+        super.onDestroy();
+    }
+
+    private void finishRating(int rating) {
         playerCMD(KeyEvent.KEYCODE_MEDIA_PAUSE);
         rateButton.setEnabled(true);
         goodButton.setEnabled(false);
         badButton.setEnabled(false);
-        isRating = false;
-        writeRatingsToFile(ratingsList);
+        if (session != null) {
+            session.rating(SystemClock.elapsedRealtime(), rating);
+        }
     }
 
-    private void writeRatingsToFile(List<String> list) {
-        if (isExternalStorageWritable()){
-            try {
-                File dir = getRatingsStorageDir("Ratings");
-                File file = new File(dir, "myData.txt");
-                try {
-                    FileOutputStream f = new FileOutputStream(file);
-                    PrintWriter pw = new PrintWriter(f);
-                    for (String r:
-                         list) {
-                        pw.println(r);
+    private void startTrack() {
+        if (session == null) {
+            session = openSession();
+        }
+        if (session != null) {
+            session.track(SystemClock.elapsedRealtime(), ++track);
+        }
+    }
+
+    /**
+     * Starts recording heart rate, RR intervals and ratings to a new session file.
+     * The session stays open for the life time of the activity.
+     */
+    private SessionWriter openSession() {
+        if (!isExternalStorageWritable()) {
+            showToast("External Storage NOT Writable!");
+            return null;
+        }
+        final String name = new SimpleDateFormat("'session-'yyyyMMdd-HHmmss'.hrv'", Locale.US)
+                .format(new Date());
+        final File file = new File(getRatingsStorageDir("Ratings"), name);
+        try {
+            final SessionWriter writer = new SessionWriter(file, System.currentTimeMillis(),
+                    SystemClock.elapsedRealtime(), SESSION_COMMIT_MILLIS, SESSION_BATCH_RECORDS);
+            if (eventBus != null) {
+                sessionSubscription = eventBus.subscribe(new SensorEventBus.Subscriber() {
+                    @Override
+                    public void onEvent(SensorEvent event) {
+                        record(writer, event);
                     }
-                    pw.flush();
-                    pw.close();
-                    f.close();
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                    Log.i(TAG, "******* File not found. Did you" +
-                            " add a WRITE_EXTERNAL_STORAGE permission to the   manifest?");
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+                }, SensorEventBus.DIRECT, SESSION_QUEUE_CAPACITY);
             }
-        }else{
-            showToast("External Storage NOT Writable!");
+            return writer;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to create session file " + file, e);
+            showToast("Unable to create session file");
+            return null;
+        }
+    }
+
+    private static void record(SessionWriter writer, SensorEvent event) {
+        switch (event.getType()) {
+            case SensorEvent.TYPE_HEART_RATE:
+                writer.append(SessionFormat.KIND_HEART_RATE, event.getTimeMillis(), event.getValue());
+                break;
+            case SensorEvent.TYPE_RR_INTERVAL:
+                writer.append(SessionFormat.KIND_RR, event.getTimeMillis(), event.getValue());
+                break;
+            case SensorEvent.TYPE_CONTACT:
+                writer.append(SessionFormat.KIND_CONTACT, event.getTimeMillis(), event.getValue());
+                break;
+            case SensorEvent.TYPE_GAP:
+                writer.append(SessionFormat.KIND_GAP, event.getTimeMillis(), event.getValue());
+                break;
         }
     }
 
+    private void closeSession() {
+        if (session == null)
+            return;
+        if (eventBus != null) {
+            eventBus.unsubscribe(sessionSubscription);
+        }
+        sessionSubscription = null;
+        try {
+            session.close();
+            if (session.getDroppedRecords() > 0)
+                Log.w(TAG, "Session dropped " + session.getDroppedRecords() + " records");
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write session file", e);
+        }
+        session = null;
+    }
+
     /* Checks if external storage is available for read and write */
     public boolean isExternalStorageWritable() {
         String state = Environment.getExternalStorageState();
@@ -203,20 +312,47 @@ public class DemoHeartRateSensorActivity extends DemoSensorActivity {
     }
 
     @Override
-	public void onDataReceived(BleSensor<?> sensor, String text) {
-		if (sensor instanceof BleHeartRateSensor) {
-			final BleHeartRateSensor heartSensor = (BleHeartRateSensor) sensor;
-			HRData value = heartSensor.getHRData();
-			renderer.setInterval(value);
-			view.requestRender();
-
-			viewText.setText(text);
-            if(isRating) {
-                ratingsList.add("heart rate=" + value.getHR() + ", interval=" + value.getHRI());
-            }
+	public void onSensorEvent(BleSensor<?> sensor, SensorEvent event) {
+		if (!(sensor instanceof BleHeartRateSensor))
+			return;
+
+		switch (event.getType()) {
+			case SensorEvent.TYPE_RR_INTERVAL:
+				interval = event.getValue();
+				break;
+			case SensorEvent.TYPE_HEART_RATE:
+				// Last event of a measurement.
+				renderer.setBeat(event.getTimeMillis(), event.getValue(), interval);
+				view.requestRender();
+
+				((BleHeartRateSensor) sensor).getHrvSnapshot(hrv);
+				viewText.setText(formatHrv(event.getValue(), interval, hrv));
+				statsText.setText(formatFrameStats());
+				interval = -1;
+				break;
 		}
 	}
 	
+	private static String formatHrv(int heartRate, int interval, HrvSnapshot hrv) {
+		return String.format(Locale.US,
+				"heart rate=%d\ninterval=%d\nRMSSD=%.1f ms SDNN=%.1f ms pNN50=%.1f%%\nSD1=%.1f ms SD2=%.1f ms\nmean HR=%.1f RR=%d..%d ms (%d beats, %d corrected)%s",
+				heartRate, interval,
+				hrv.getRmssd(), hrv.getSdnn(), hrv.getPnn50(), hrv.getSd1(), hrv.getSd2(),
+				hrv.getMeanHeartRate(), hrv.getMinRr(), hrv.getMaxRr(), hrv.getBeats(),
+				hrv.getCorrectedBeats(),
+				hrv.isSpectrumValid()
+						? String.format(Locale.US, "\nLF=%.0f HF=%.0f ms\u00b2 LF/HF=%.2f",
+								hrv.getLfPower(), hrv.getHfPower(), hrv.getLfHfRatio())
+						: "");
+	}
+
+	// Frame times of the renderer and the garbage collections of the process so far.
+	private String formatFrameStats() {
+		final String gcCount = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+				? Debug.getRuntimeStat("art.gc.gc-count") : "n/a";
+		return frameStats.summarize() + ", GC " + gcCount;
+	}
+
 	abstract class AbstractRenderer implements GLSurfaceView.Renderer {
 		
 		public int[] getConfigSpec() {
@@ -241,6 +377,7 @@ public class DemoHeartRateSensorActivity extends DemoSensorActivity {
 		}
 
 		public void onDrawFrame(GL10 gl) {
+			final long start = System.nanoTime();
 			gl.glDisable(GL10.GL_DITHER);
 			gl.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
 			gl.glMatrixMode(GL10.GL_MODELVIEW);
@@ -248,271 +385,75 @@ public class DemoHeartRateSensorActivity extends DemoSensorActivity {
 			GLU.gluLookAt(gl, 0, 0, -5, 0f, 0f, 0f, 0f, 1.0f, 0.0f);
 			gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
 			draw(gl);
+			frameStats.frame(System.nanoTime() - start);
 		}
 
 		protected abstract void draw(GL10 gl);
 	}
 
-	private class PolygonRenderer extends AbstractRenderer {
-		private final String TAG = PolygonRenderer.class
-				.getSimpleName();
-
-		// Number of points or vertices we want to use
-		private final static int VERTS = 4;
+	// Fixed-function renderer of devices without OpenGL ES 2.0.
+	private class PolygonRenderer extends AbstractRenderer implements BeatRenderer {
 
-		// A raw native buffer to hold the point coordinates
-		private FloatBuffer mFVertexBuffer;
+		// Drawn until a valid interval arrives.
+		private static final float DEFAULT_INTERVAL = 700;
 
-		// A raw native buffer to hold indices
-		// allowing a reuse of points.
-		private ShortBuffer mIndexBuffer;
+		private final int sides = 32;
+		// Built once, the interval only scales it.
+		private final RegularPolygon polygon = new RegularPolygon(sides);
 
-		private int numOfIndecies = 0;
-
-		private long prevtime = SystemClock.uptimeMillis();
-
-		private int sides = 32;
-
-//		private float intervalHR = 0;
+		// Only used on the UI thread.
 		private float intervalHRI = 0;
-//		private float intervalEnergy = 0;
 		private float previousHRI = 0;
 
-		void setInterval(HRData interval) {
-			if (this.intervalHRI >= 0 && interval.getHRI() > 0) {
+		// Written on the UI thread, read on the GL thread.
+		private final BeatExchange beats = new BeatExchange();
+		// Only used on the GL thread.
+		private long beatSequence;
+		private float radius = toRadius(toInterval(intervalHRI));
+
+		@Override
+		public void setBeat(long timeMillis, int heartRate, float interval) {
+			if (this.intervalHRI >= 0 && interval > 0) {
 				this.previousHRI = this.intervalHRI;
 			}
-//			this.intervalHR = interval.getHR(); // heart rate
-			this.intervalHRI = interval.getHRI(); // beat to beat interval
-//			this.intervalEnergy = 0;			// empty
+			this.intervalHRI = interval; // beat to beat interval
+			beats.publish(timeMillis, heartRate, toInterval(interval));
 		}
-		
+
 		PolygonRenderer(Context context) {
-			prepareBuffers(sides, intervalHRI);
 		}
 
-		private void prepareBuffers(int sides, float radius) {
-			Log.d(TAG,"radius: "+radius +" previous: "+ previousHRI);
+		// Only used on the UI thread, the fallback reads its state.
+		private float toInterval(float interval) {
 			// Is it a valid value?
-			if (radius < 0) {
-				radius = previousHRI;
-			}
-			
-			// Double check if the previous value was valid
-			if (radius < 0) {
-				radius = 700;
-			}
-			Log.d(TAG,"final radius: "+radius);
-			
-			radius = ( ( radius / 1000 ) - 0.7f ) * 2;
-			
-			RegularPolygon t = new RegularPolygon(0, 0, 0, radius, sides);
-			this.mFVertexBuffer = t.getVertexBuffer();
-			this.mIndexBuffer = t.getIndexBuffer();
-			this.numOfIndecies = t.getNumberOfIndecies();
-			this.mFVertexBuffer.position(0);
-			this.mIndexBuffer.position(0);
-		}
-
-		// overriden method
-		protected void draw(GL10 gl) {
-			long curtime = SystemClock.uptimeMillis();
-
-			this.prepareBuffers(sides, intervalHRI);
-			gl.glColor4f(96/255.0f, 246/255.0f, 255/255.0f, 1.0f);
-			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, mFVertexBuffer);
-			gl.glDrawElements(GL10.GL_TRIANGLES, this.numOfIndecies,
-					GL10.GL_UNSIGNED_SHORT, mIndexBuffer);
-		}
-	}
-
-
-	private static class RegularPolygon {
-		private static final String TAG = RegularPolygon.class
-				.getSimpleName();
-		private float cx, cy, cz, r;
-		private int sides;
-		private float[] xarray = null;
-		private float[] yarray = null;
-
-		RegularPolygon(float incx, float incy, float incz, // (x,y,z)
-																	// center
-				float inr, // radius
-				int insides) // number of sides
-		{
-			cx = incx;
-			cy = incy;
-			cz = incz;
-			r = inr;
-			sides = insides;
-
-			xarray = new float[sides];
-			yarray = new float[sides];
-			calcArrays();
-		}
-
-		private void calcArrays() {
-			float[] xmarray = this.getXMultiplierArray();
-			float[] ymarray = this.getYMultiplierArray();
-
-			// calc xarray
-			for (int i = 0; i < sides; i++) {
-				float curm = xmarray[i];
-				float xcoord = cx + r * curm;
-				xarray[i] = xcoord;
-			}
-			//this.printArray(xarray, "xarray");
-
-			// calc yarray
-			for (int i = 0; i < sides; i++) {
-				float curm = ymarray[i];
-				float ycoord = cy + r * curm;
-				yarray[i] = ycoord;
-			}
-			//this.printArray(yarray, "yarray");
-
-		}
-
-		FloatBuffer getVertexBuffer() {
-			int vertices = sides + 1;
-			int coordinates = 3;
-			int float_size = 4;
-			int spacePerVertex = coordinates * float_size;
-
-			ByteBuffer vbb = ByteBuffer.allocateDirect(spacePerVertex
-					* vertices);
-			vbb.order(ByteOrder.nativeOrder());
-			FloatBuffer mFVertexBuffer = vbb.asFloatBuffer();
-
-			// Put the first coordinate (x,y,z:0,0,0)
-			mFVertexBuffer.put(0.0f); // x
-			mFVertexBuffer.put(0.0f); // y
-			mFVertexBuffer.put(0.0f); // z
-
-			int totalPuts = 3;
-			for (int i = 0; i < sides; i++) {
-				mFVertexBuffer.put(xarray[i]); // x
-				mFVertexBuffer.put(yarray[i]); // y
-				mFVertexBuffer.put(0.0f); // z
-				totalPuts += 3;
-			}
-			//Log.d(TAG, "total puts: " + Integer.toString(totalPuts));
-			return mFVertexBuffer;
-		}
-
-		ShortBuffer getIndexBuffer() {
-//			short[] iarray = new short[sides * 3];
-			ByteBuffer ibb = ByteBuffer.allocateDirect(sides * 3 * 2);
-			ibb.order(ByteOrder.nativeOrder());
-			ShortBuffer mIndexBuffer = ibb.asShortBuffer();
-			for (int i = 0; i < sides; i++) {
-				short index1 = 0;
-				short index2 = (short) (i + 1);
-				short index3 = (short) (i + 2);
-				if (index3 == sides + 1) {
-					index3 = 1;
-				}
-				mIndexBuffer.put(index1);
-				mIndexBuffer.put(index2);
-				mIndexBuffer.put(index3);
-
-//				iarray[i * 3 + 0] = index1;
-//				iarray[i * 3 + 1] = index2;
-//				iarray[i * 3 + 2] = index3;
+			if (interval < 0) {
+				interval = previousHRI;
 			}
-			//this.printShortArray(iarray, "index array");
-			return mIndexBuffer;
-		}
 
-		private float[] getXMultiplierArray() {
-			float[] angleArray = getAngleArrays();
-			float[] xmultiplierArray = new float[sides];
-			for (int i = 0; i < angleArray.length; i++) {
-				float curAngle = angleArray[i];
-				float sinvalue = (float) Math.cos(Math.toRadians(curAngle));
-				float absSinValue = Math.abs(sinvalue);
-				if (isXPositiveQuadrant(curAngle)) {
-					sinvalue = absSinValue;
-				} else {
-					sinvalue = -absSinValue;
-				}
-				xmultiplierArray[i] = this.getApproxValue(sinvalue);
-			}
-			//this.printArray(xmultiplierArray, "xmultiplierArray");
-			return xmultiplierArray;
-		}
-
-		private float[] getYMultiplierArray() {
-			float[] angleArray = getAngleArrays();
-			float[] ymultiplierArray = new float[sides];
-			for (int i = 0; i < angleArray.length; i++) {
-				float curAngle = angleArray[i];
-				float sinvalue = (float) Math.sin(Math.toRadians(curAngle));
-				float absSinValue = Math.abs(sinvalue);
-				if (isYPositiveQuadrant(curAngle)) {
-					sinvalue = absSinValue;
-				} else {
-					sinvalue = -absSinValue;
-				}
-				ymultiplierArray[i] = this.getApproxValue(sinvalue);
+			// Double check if the previous value was valid
+			if (interval < 0) {
+				interval = DEFAULT_INTERVAL;
 			}
-			//this.printArray(ymultiplierArray, "ymultiplierArray");
-			return ymultiplierArray;
+			return interval;
 		}
 
-		private boolean isXPositiveQuadrant(float angle) {
-			return ((0 <= angle) && (angle <= 90) ||
-					(angle < 0) && (angle >= -90));
+		private float toRadius(float interval) {
+			return ( ( interval / 1000 ) - 0.7f ) * 2;
 		}
 
-		private boolean isYPositiveQuadrant(float angle) {
-			return ((0 <= angle) && (angle <= 90) ||
-					(angle < 180) && (angle >= 90));
-		}
-
-		private float[] getAngleArrays() {
-			float[] angleArray = new float[sides];
-			float commonAngle = 360.0f / sides;
-			float halfAngle = commonAngle / 2.0f;
-			float firstAngle = 360.0f - (90 + halfAngle);
-			angleArray[0] = firstAngle;
-
-			float curAngle = firstAngle;
-			for (int i = 1; i < sides; i++) {
-				float newAngle = curAngle - commonAngle;
-				angleArray[i] = newAngle;
-				curAngle = newAngle;
-			}
-			//printArray(angleArray, "angleArray");
-			return angleArray;
-		}
-
-		private float getApproxValue(float f) {
-			if (Math.abs(f) < 0.001) {
-				return 0;
+		// overriden method
+		protected void draw(GL10 gl) {
+			final BeatExchange.Beat beat = beats.latest();
+			if (beat.getSequence() != beatSequence) {
+				beatSequence = beat.getSequence();
+				radius = toRadius(beat.getInterval());
 			}
-			return f;
-		}
-
-		int getNumberOfIndecies() {
-			return sides * 3;
+			gl.glScalef(radius, radius, 1);
+			gl.glColor4f(96/255.0f, 246/255.0f, 255/255.0f, 1.0f);
+			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, polygon.getVertexBuffer());
+			gl.glDrawElements(GL10.GL_TRIANGLES, polygon.getNumberOfIndecies(),
+					GL10.GL_UNSIGNED_SHORT, polygon.getIndexBuffer());
 		}
-
-//		private void printArray(float array[], String tag) {
-//			StringBuilder sb = new StringBuilder(tag);
-//			for (float num: array) {
-//				sb.append(";").append(num);
-//			}
-//			Log.d(TAG, sb.toString());
-//		}
-//
-//		private void printShortArray(short array[], String tag) {
-//			StringBuilder sb = new StringBuilder(tag);
-//			for (int i = 0; i < array.length; i++) {
-//				sb.append(";").append(array[i]);
-//			}
-//			Log.d(TAG, sb.toString());
-//		}
 	}
 
 }
@@ -1,8 +1,11 @@
 package com.sample.hrv.demo;
 
 import com.sample.hrv.BleService;
+import com.sample.hrv.R;
+import com.sample.hrv.event.MainThreadExecutor;
+import com.sample.hrv.event.SensorEvent;
+import com.sample.hrv.event.SensorEventBus;
 import com.sample.hrv.sensor.BleSensor;
-import com.sample.hrv.sensor.BleSensors;
 
 import android.app.Activity;
 import android.content.BroadcastReceiver;
@@ -15,6 +18,7 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.util.Log;
 import android.view.MenuItem;
+import android.widget.Toast;
 
 
 /**
@@ -27,34 +31,43 @@ public abstract class DemoSensorActivity extends Activity {
     public static final String EXTRAS_DEVICE_ADDRESS = "DEVICE_ADDRESS";
     public static final String EXTRAS_SENSOR_UUID = "SERVICE_UUID";
 
+    // Events queued for the UI thread before they are dropped.
+    private static final int EVENT_QUEUE_CAPACITY = 256;
+
     private BleService bleService;
     private String serviceUuid;
     private String deviceAddress;
+    private BleSensor<?> sensor;
+    private SensorEventBus.Subscription subscription;
 
     // Handles various events fired by the Service.
     // ACTION_GATT_CONNECTED: connected to a GATT server.
-    // ACTION_GATT_DISCONNECTED: disconnected from a GATT server.
+    // ACTION_GATT_DISCONNECTED: disconnected from a GATT server, the service reconnects.
     // ACTION_GATT_SERVICES_DISCOVERED: discovered GATT services.
-    // ACTION_DATA_AVAILABLE: received data from the device.  This can be a result of read
-    //                        or notification operations.
+    // Sensor data arrives on the event bus of the service instead.
     private final BroadcastReceiver gattUpdateReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             final String action = intent.getAction();
+            if (!deviceAddress.equals(intent.getStringExtra(BleService.EXTRA_DEVICE_ADDRESS)))
+                return;
             if (BleService.ACTION_GATT_DISCONNECTED.equals(action)) {
-                //TODO: show toast
-                finish();
+                // The session continues, the data after the reconnect follows a gap event.
+                Toast.makeText(DemoSensorActivity.this, R.string.reconnecting, Toast.LENGTH_SHORT).show();
             } else if (BleService.ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
-                final BleSensor<?> sensor = BleSensors.getSensor(serviceUuid);
-                bleService.enableSensor(sensor, true);
-            } else if (BleService.ACTION_DATA_AVAILABLE.equals(action)) {
-                final BleSensor<?> sensor = BleSensors.getSensor(serviceUuid);
-                final String text = intent.getStringExtra(BleService.EXTRA_TEXT);
-                onDataReceived(sensor, text);
+                // Does nothing after a reconnect, the connection restored the sensor.
+                bleService.enableSensor(deviceAddress, sensor, true);
             }
         }
     };
 
+    private final SensorEventBus.Subscriber eventSubscriber = new SensorEventBus.Subscriber() {
+        @Override
+        public void onEvent(SensorEvent event) {
+            onSensorEvent(sensor, event);
+        }
+    };
+
     // Code to manage Service lifecycle.
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
@@ -64,19 +77,37 @@ public abstract class DemoSensorActivity extends Activity {
                 Log.e(TAG, "Unable to initialize Bluetooth");
                 finish();
             }
+            sensor = bleService.getSensor(deviceAddress, serviceUuid);
+            subscription = bleService.getEventBus(deviceAddress).subscribe(eventSubscriber,
+                    new MainThreadExecutor(), EVENT_QUEUE_CAPACITY);
+            onServiceBound(bleService);
             // Automatically connects to the device upon successful start-up initialization.
             bleService.connect(deviceAddress);
         }
 
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
+            subscription = null;
             bleService = null;
             //TODO: show toast
             finish();
         }
     };
 
-    public abstract void onDataReceived(BleSensor<?> sensor, String text);
+    /**
+     * Called on the UI thread for every event published by the service.
+     */
+    public abstract void onSensorEvent(BleSensor<?> sensor, SensorEvent event);
+
+    /**
+     * Called once the service is bound, before connecting to the device.
+     */
+    protected void onServiceBound(BleService service) {
+    }
+
+    protected String getDeviceAddress() {
+        return deviceAddress;
+    }
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -112,6 +143,9 @@ public abstract class DemoSensorActivity extends Activity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (bleService != null)
+            bleService.getEventBus(deviceAddress).unsubscribe(subscription);
+        subscription = null;
         unbindService(serviceConnection);
         bleService = null;
     }
@@ -130,7 +164,6 @@ public abstract class DemoSensorActivity extends Activity {
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(BleService.ACTION_GATT_SERVICES_DISCOVERED);
         intentFilter.addAction(BleService.ACTION_GATT_DISCONNECTED);
-        intentFilter.addAction(BleService.ACTION_DATA_AVAILABLE);
         return intentFilter;
     }
 }
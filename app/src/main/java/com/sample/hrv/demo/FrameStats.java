@@ -0,0 +1,40 @@
+package com.sample.hrv.demo;
+
+import java.util.Locale;
+
+/**
+ * Time spent in the frames of a renderer, recorded on the GL thread and summarized on
+ * the UI thread. It is the time to issue the GL calls of a frame, the GPU may finish
+ * later.
+ */
+public class FrameStats {
+    private long frames;
+    private long totalNanos;
+    // Since the last summary.
+    private long maxNanos;
+
+    public synchronized void frame(long nanos) {
+        frames++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    public synchronized double getMeanMillis() {
+        return frames == 0 ? 0 : totalNanos / 1e6 / frames;
+    }
+
+    /**
+     * @return the frame count, the mean frame time and the longest frame since the
+     *         last summary, which starts over.
+     */
+    public synchronized String summarize() {
+        final String summary = String.format(Locale.US, "%d frames, mean %.2f ms, max %.2f ms",
+                frames, getMeanMillis(), maxNanos / 1e6);
+        maxNanos = 0;
+        return summary;
+    }
+}
@@ -0,0 +1,180 @@
+package com.sample.hrv.demo;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.sample.hrv.event.SensorEvent;
+import com.sample.hrv.event.SensorEventBus;
+
+/**
+ * Poincare plot of the recent beats, each RR interval against the one before it, drawn
+ * by the {@link PulseRenderer} in a square at the top right of its view.
+ *
+ * The points are kept in a ring of fixed size in a buffer object and a new beat only
+ * uploads its own point. Points fade out with their age in the shader, so a frame
+ * draws the same number of points however long the session runs.
+ *
+ * Like the {@link Tachogram} it is fed on the GL thread, all its state belongs to that
+ * thread.
+ */
+class PoincarePlot implements SensorEventBus.Subscriber {
+
+    private static final String VERTEX_SHADER =
+            "uniform float uNow;\n"
+            + "uniform float uFade;\n"
+            + "uniform vec2 uRange;\n"
+            + "uniform float uPointSize;\n"
+            + "attribute vec3 aPoint;\n"
+            + "varying float vAlpha;\n"
+            + "void main() {\n"
+            + "    vec2 scaled = (aPoint.xy - uRange.x) / (uRange.y - uRange.x);\n"
+            + "    gl_Position = vec4(2.0 * scaled - 1.0, 0.0, 1.0);\n"
+            + "    gl_PointSize = uPointSize;\n"
+            + "    vAlpha = clamp(1.0 - (uNow - aPoint.z) / uFade, 0.1, 1.0);\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "uniform vec3 uColor;\n"
+            + "varying float vAlpha;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = vec4(uColor, vAlpha);\n"
+            + "}\n";
+
+    // Points kept, about a quarter of an hour at 70 beats per minute.
+    static final int CAPACITY = 1024;
+    // Age at which a point is faded down to its floor.
+    private static final float FADE_SECONDS = 5 * 60;
+    // RR intervals shown on both axes, in milliseconds.
+    private static final float MIN_RR = 300;
+    private static final float MAX_RR = 1500;
+    // Side of the plot, as part of the smaller side of the view.
+    private static final float SIZE = 0.35f;
+    private static final float POINT_SIZE = 6;
+
+    // Previous and current RR interval, and the time of the beat.
+    private static final int COORDINATES = 3;
+    private static final int VERTEX_SIZE = COORDINATES * 4;
+
+    // Copy of the buffer object, to fill it again with a new context.
+    private final FloatBuffer points = ByteBuffer.allocateDirect(CAPACITY * VERTEX_SIZE)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final int[] buffer = new int[1];
+    private int next;
+    private int count;
+    // Points changed since the last upload, none if the first is after the last.
+    private int dirtyFirst = Integer.MAX_VALUE;
+    private int dirtyLast = -1;
+
+    // Point times are relative to the first beat, in seconds, to keep float precision.
+    private long baseMillis = -1;
+    // -1 at the start and after a gap, no point spans missing data.
+    private float previousRr = -1;
+
+    private int program;
+    private int pointHandle;
+    private int nowHandle;
+    private int fadeHandle;
+    private int rangeHandle;
+    private int pointSizeHandle;
+    private int colorHandle;
+    private int width;
+    private int height;
+
+    /**
+     * Called on the GL thread for the RR intervals and gaps of the sensor.
+     */
+    @Override
+    public void onEvent(SensorEvent event) {
+        switch (event.getType()) {
+            case SensorEvent.TYPE_RR_INTERVAL:
+                append(event.getTimeMillis(), event.getValue() * 1000f / 1024);
+                break;
+            case SensorEvent.TYPE_GAP:
+                previousRr = -1;
+                break;
+        }
+    }
+
+    private void append(long timeMillis, float rr) {
+        if (baseMillis < 0)
+            baseMillis = timeMillis;
+        if (previousRr > 0) {
+            final int offset = next * COORDINATES;
+            points.put(offset, previousRr);
+            points.put(offset + 1, rr);
+            points.put(offset + 2, (timeMillis - baseMillis) / 1000f);
+            dirtyFirst = Math.min(dirtyFirst, next);
+            dirtyLast = Math.max(dirtyLast, next);
+            next = (next + 1) % CAPACITY;
+            if (count < CAPACITY)
+                count++;
+        }
+        previousRr = rr;
+    }
+
+    void onSurfaceCreated() {
+        program = PulseRenderer.createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        pointHandle = GLES20.glGetAttribLocation(program, "aPoint");
+        nowHandle = GLES20.glGetUniformLocation(program, "uNow");
+        fadeHandle = GLES20.glGetUniformLocation(program, "uFade");
+        rangeHandle = GLES20.glGetUniformLocation(program, "uRange");
+        pointSizeHandle = GLES20.glGetUniformLocation(program, "uPointSize");
+        colorHandle = GLES20.glGetUniformLocation(program, "uColor");
+
+        // The whole ring once, the points received so far included.
+        GLES20.glGenBuffers(1, buffer, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+        points.position(0);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, points.capacity() * 4, points,
+                GLES20.GL_DYNAMIC_DRAW);
+        dirtyFirst = Integer.MAX_VALUE;
+        dirtyLast = -1;
+    }
+
+    void onSurfaceChanged(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Uploads the new points and draws the plot, then restores the full viewport.
+     *
+     * @param nowMillis current time on the clock of the sensor events.
+     */
+    void draw(long nowMillis) {
+        if (count == 0)
+            return;
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+        if (dirtyFirst <= dirtyLast) {
+            points.position(dirtyFirst * COORDINATES);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, dirtyFirst * VERTEX_SIZE,
+                    (dirtyLast - dirtyFirst + 1) * VERTEX_SIZE, points);
+            dirtyFirst = Integer.MAX_VALUE;
+            dirtyLast = -1;
+        }
+
+        final int side = (int) (Math.min(width, height) * SIZE);
+        GLES20.glViewport(width - side, height - side, side, side);
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glUseProgram(program);
+        GLES20.glUniform1f(nowHandle, (nowMillis - baseMillis) / 1000f);
+        GLES20.glUniform1f(fadeHandle, FADE_SECONDS);
+        GLES20.glUniform2f(rangeHandle, MIN_RR, MAX_RR);
+        GLES20.glUniform1f(pointSizeHandle, POINT_SIZE);
+        GLES20.glUniform3f(colorHandle, 1, 1, 0.6f);
+        GLES20.glEnableVertexAttribArray(pointHandle);
+        GLES20.glVertexAttribPointer(pointHandle, COORDINATES, GLES20.GL_FLOAT, false,
+                VERTEX_SIZE, 0);
+        // The order does not matter, all points of the ring at once.
+        GLES20.glDrawArrays(GLES20.GL_POINTS, 0, count);
+        GLES20.glDisableVertexAttribArray(pointHandle);
+        GLES20.glDisable(GLES20.GL_BLEND);
+        GLES20.glViewport(0, 0, width, height);
+    }
+}
@@ -0,0 +1,228 @@
+package com.sample.hrv.demo;
+
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.opengl.Matrix;
+import android.os.SystemClock;
+import android.util.Log;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * OpenGL ES 2.0 renderer of the beat polygon. The unit polygon is uploaded to vertex
+ * and index buffer objects when the surface is created; a frame only sets the uniforms
+ * of the size and the colour and draws the buffers.
+ *
+ * The size follows the RR interval like the fixed-function renderer, eased from one
+ * beat to the next, and every beat adds a short pulse. The colour moves from cyan to
+ * red with the heart rate. The view renders when dirty and the renderer requests the
+ * next frame itself while the animation moves, so the motion is continuous between
+ * beats without drawing while nothing changes.
+ */
+class PulseRenderer implements BeatRenderer {
+    private final static String TAG = PulseRenderer.class.getSimpleName();
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMvpMatrix;\n"
+            + "uniform float uScale;\n"
+            + "attribute vec4 aPosition;\n"
+            + "void main() {\n"
+            + "    gl_Position = uMvpMatrix * vec4(aPosition.xy * uScale, aPosition.z, 1.0);\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "uniform vec4 uColor;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = uColor;\n"
+            + "}\n";
+
+    private static final int SIDES = 32;
+    // Drawn until a valid interval arrives.
+    private static final float DEFAULT_INTERVAL = 700;
+    // Time constants of the easing to a new size and of the decay of a pulse.
+    private static final float EASING_MILLIS = 250;
+    private static final float PULSE_MILLIS = 150;
+    private static final float PULSE_SCALE = 0.1f;
+    // Heart rates of the calm and the alarm colour.
+    private static final float CALM_HEART_RATE = 60;
+    private static final float ALARM_HEART_RATE = 120;
+    // The animation is at rest below this change of the scale.
+    private static final float REST_EPSILON = 0.001f;
+
+    private final GLSurfaceView view;
+    private final FrameStats frameStats;
+    private final Tachogram tachogram;
+    private final PoincarePlot poincarePlot;
+    private final RegularPolygon polygon = new RegularPolygon(SIDES);
+
+    // Written on the UI thread, read on the GL thread.
+    private final BeatExchange beats = new BeatExchange();
+
+    // Only used on the UI thread.
+    private float previousInterval = -1;
+
+    // GL thread state.
+    private final float[] projectionMatrix = new float[16];
+    private final float[] viewMatrix = new float[16];
+    private final float[] mvpMatrix = new float[16];
+    private final int[] buffers = new int[2];
+    private int program;
+    private int positionHandle;
+    private int mvpMatrixHandle;
+    private int scaleHandle;
+    private int colorHandle;
+    private long beatSequence;
+    private float targetRadius = toRadius(DEFAULT_INTERVAL);
+    private float radius = targetRadius;
+    private long lastFrameMillis = -1;
+
+    PulseRenderer(GLSurfaceView view, FrameStats frameStats, Tachogram tachogram,
+                  PoincarePlot poincarePlot) {
+        this.view = view;
+        this.frameStats = frameStats;
+        this.tachogram = tachogram;
+        this.poincarePlot = poincarePlot;
+    }
+
+    @Override
+    public void setBeat(long timeMillis, int heartRate, float interval) {
+        if (interval > 0)
+            previousInterval = interval;
+        else
+            interval = previousInterval > 0 ? previousInterval : DEFAULT_INTERVAL;
+        beats.publish(timeMillis, heartRate, interval);
+    }
+
+    private static float toRadius(float interval) {
+        return ((interval / 1000) - 0.7f) * 2;
+    }
+
+    @Override
+    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        GLES20.glClearColor(.5f, .5f, .5f, 1);
+        GLES20.glDisable(GLES20.GL_DITHER);
+
+        // A new context, the previous objects are gone.
+        program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        mvpMatrixHandle = GLES20.glGetUniformLocation(program, "uMvpMatrix");
+        scaleHandle = GLES20.glGetUniformLocation(program, "uScale");
+        colorHandle = GLES20.glGetUniformLocation(program, "uColor");
+
+        GLES20.glGenBuffers(buffers.length, buffers, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, polygon.getVertexBuffer().capacity() * 4,
+                polygon.getVertexBuffer(), GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, polygon.getIndexBuffer().capacity() * 2,
+                polygon.getIndexBuffer(), GLES20.GL_STATIC_DRAW);
+
+        tachogram.onSurfaceCreated();
+        poincarePlot.onSurfaceCreated();
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 unused, int width, int height) {
+        GLES20.glViewport(0, 0, width, height);
+        // The camera of the fixed-function renderer.
+        final float ratio = (float) width / height;
+        Matrix.frustumM(projectionMatrix, 0, -ratio, ratio, -1, 1, 3, 7);
+        Matrix.setLookAtM(viewMatrix, 0, 0, 0, -5, 0f, 0f, 0f, 0f, 1.0f, 0.0f);
+        Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+
+        tachogram.onSurfaceChanged(width, height);
+        poincarePlot.onSurfaceChanged(width, height);
+    }
+
+    @Override
+    public void onDrawFrame(GL10 unused) {
+        final long start = System.nanoTime();
+        final long now = SystemClock.elapsedRealtime();
+
+        final BeatExchange.Beat beat = beats.latest();
+        if (beat.getSequence() != beatSequence) {
+            beatSequence = beat.getSequence();
+            targetRadius = toRadius(beat.getInterval());
+        }
+
+        // Ease to the size of the last beat.
+        final float previousRadius = radius;
+        if (lastFrameMillis < 0) {
+            radius = targetRadius;
+        } else {
+            final float step = 1 - (float) Math.exp(-(now - lastFrameMillis) / EASING_MILLIS);
+            radius += (targetRadius - radius) * step;
+        }
+        lastFrameMillis = now;
+
+        // The pulse is timed from the measurement, not from the frame that shows it.
+        final float pulse = beatSequence == 0 ? 0
+                : (float) Math.exp(-Math.max(0, now - beat.getTimeMillis()) / PULSE_MILLIS);
+        final float scale = radius * (1 + PULSE_SCALE * pulse);
+
+        final float alarm = Math.max(0, Math.min(1,
+                (beat.getHeartRate() - CALM_HEART_RATE) / (ALARM_HEART_RATE - CALM_HEART_RATE)));
+
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glUseProgram(program);
+        GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
+        GLES20.glUniform1f(scaleHandle, scale);
+        GLES20.glUniform4f(colorHandle, (96 + alarm * (255 - 96)) / 255.0f,
+                (246 - alarm * (246 - 64)) / 255.0f, (255 - alarm * (255 - 64)) / 255.0f, 1.0f);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 3 * 4, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, polygon.getNumberOfIndecies(),
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        GLES20.glDisableVertexAttribArray(positionHandle);
+
+        tachogram.draw(now);
+        poincarePlot.draw(now);
+
+        frameStats.frame(System.nanoTime() - start);
+
+        // Keep drawing while the size or the pulse still change.
+        if (Math.abs(radius - previousRadius) > REST_EPSILON || pulse * PULSE_SCALE > REST_EPSILON
+                || Math.abs(targetRadius - radius) > REST_EPSILON)
+            view.requestRender();
+    }
+
+    static int createProgram(String vertexSource, String fragmentSource) {
+        final int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        final int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        final int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        final int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            final String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new RuntimeException("Could not link program: " + log);
+        }
+        // Flagged for deletion with the program.
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        return program;
+    }
+
+    private static int loadShader(int type, String source) {
+        final int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        final int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            final String log = GLES20.glGetShaderInfoLog(shader);
+            Log.e(TAG, "Could not compile shader " + type + ": " + log);
+            GLES20.glDeleteShader(shader);
+            throw new RuntimeException("Could not compile shader: " + log);
+        }
+        return shader;
+    }
+}
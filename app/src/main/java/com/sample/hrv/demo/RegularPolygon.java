@@ -0,0 +1,89 @@
+package com.sample.hrv.demo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Triangle fan of a regular polygon of radius 1 around the origin, the first vertex
+ * is the center. The buffers are built once and drawn with a scale.
+ */
+class RegularPolygon {
+    private final int sides;
+    private final FloatBuffer vertexBuffer;
+    private final ShortBuffer indexBuffer;
+
+    RegularPolygon(int sides) {
+        this.sides = sides;
+        this.vertexBuffer = createVertexBuffer();
+        this.indexBuffer = createIndexBuffer();
+    }
+
+    private FloatBuffer createVertexBuffer() {
+        int vertices = sides + 1;
+        int coordinates = 3;
+        int float_size = 4;
+        int spacePerVertex = coordinates * float_size;
+
+        ByteBuffer vbb = ByteBuffer.allocateDirect(spacePerVertex
+                * vertices);
+        vbb.order(ByteOrder.nativeOrder());
+        FloatBuffer buffer = vbb.asFloatBuffer();
+
+        // Put the first coordinate (x,y,z:0,0,0)
+        buffer.put(0.0f); // x
+        buffer.put(0.0f); // y
+        buffer.put(0.0f); // z
+
+        // Clockwise from the bottom, the first side is horizontal.
+        final double commonAngle = 2 * Math.PI / sides;
+        final double firstAngle = 1.5 * Math.PI - commonAngle / 2;
+        for (int i = 0; i < sides; i++) {
+            final double angle = firstAngle - i * commonAngle;
+            buffer.put(getApproxValue((float) Math.cos(angle))); // x
+            buffer.put(getApproxValue((float) Math.sin(angle))); // y
+            buffer.put(0.0f); // z
+        }
+        buffer.position(0);
+        return buffer;
+    }
+
+    private ShortBuffer createIndexBuffer() {
+        ByteBuffer ibb = ByteBuffer.allocateDirect(sides * 3 * 2);
+        ibb.order(ByteOrder.nativeOrder());
+        ShortBuffer buffer = ibb.asShortBuffer();
+        for (int i = 0; i < sides; i++) {
+            short index1 = 0;
+            short index2 = (short) (i + 1);
+            short index3 = (short) (i + 2);
+            if (index3 == sides + 1) {
+                index3 = 1;
+            }
+            buffer.put(index1);
+            buffer.put(index2);
+            buffer.put(index3);
+        }
+        buffer.position(0);
+        return buffer;
+    }
+
+    private static float getApproxValue(float f) {
+        if (Math.abs(f) < 0.001) {
+            return 0;
+        }
+        return f;
+    }
+
+    FloatBuffer getVertexBuffer() {
+        return vertexBuffer;
+    }
+
+    ShortBuffer getIndexBuffer() {
+        return indexBuffer;
+    }
+
+    int getNumberOfIndecies() {
+        return sides * 3;
+    }
+}
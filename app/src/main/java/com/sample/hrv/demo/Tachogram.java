@@ -0,0 +1,246 @@
+package com.sample.hrv.demo;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.sample.hrv.event.SensorEvent;
+import com.sample.hrv.event.SensorEventBus;
+
+/**
+ * Scrolling plot of the RR intervals of the last minutes, drawn by the
+ * {@link PulseRenderer} in a band at the bottom of its view.
+ *
+ * The beats are kept in a ring of vertices of fixed size in a buffer object. A new beat
+ * only uploads its own vertex with {@code glBufferSubData}; the scrolling is done by
+ * the vertex shader from the time of a vertex and the current time, so a frame costs
+ * the same whatever the length of the history.
+ *
+ * A gap in the data breaks the line: the beats are drawn as strips that end at every
+ * gap, so no segment spans missing data.
+ *
+ * The tachogram subscribes to the event bus with an executor that runs on the GL
+ * thread, so all its state belongs to that thread.
+ */
+class Tachogram implements SensorEventBus.Subscriber {
+    private final static String TAG = Tachogram.class.getSimpleName();
+
+    private static final String VERTEX_SHADER =
+            "uniform float uNow;\n"
+            + "uniform float uWindow;\n"
+            + "uniform vec2 uRange;\n"
+            + "attribute vec2 aBeat;\n"
+            + "void main() {\n"
+            + "    gl_Position = vec4(1.0 + 2.0 * (aBeat.x - uNow) / uWindow,\n"
+            + "            -1.0 + 2.0 * (aBeat.y - uRange.x) / (uRange.y - uRange.x), 0.0, 1.0);\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "uniform vec4 uColor;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = uColor;\n"
+            + "}\n";
+
+    // Time shown, and beats kept: ten minutes at up to 240 beats per minute.
+    private static final float WINDOW_SECONDS = 10 * 60;
+    static final int CAPACITY = 4096;
+    // RR intervals shown, in milliseconds.
+    private static final float MIN_RR = 300;
+    private static final float MAX_RR = 1500;
+    // Part of the view height taken by the plot.
+    private static final float HEIGHT = 0.25f;
+    // The beat times follow the RR intervals, unless they drift this far from the
+    // time the intervals were received.
+    private static final long RESYNC_MILLIS = 3000;
+
+    // Time and RR interval of a beat.
+    private static final int COORDINATES = 2;
+    private static final int VERTEX_SIZE = COORDINATES * 4;
+
+    // Copy of the buffer object, to fill it again with a new context. The vertex after
+    // the ring repeats the first one, so the strip from the oldest beat to the end of
+    // the ring continues to the strip from its start to the newest.
+    private final FloatBuffer vertices = ByteBuffer.allocateDirect((CAPACITY + 1) * VERTEX_SIZE)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final int[] buffer = new int[1];
+    private int next;
+    private int count;
+    // Beats appended so far; the beat with sequence s is at ring index s % CAPACITY.
+    private long appended;
+    // Sequences of the beats in the ring that follow a gap, oldest first, a ring itself.
+    private final long[] breaks = new long[CAPACITY];
+    private int firstBreak;
+    private int breakCount;
+    private boolean gap;
+    // Ring vertices changed since the last upload, none if the first is after the last.
+    private int dirtyFirst = Integer.MAX_VALUE;
+    private int dirtyLast = -1;
+    private boolean mirrorDirty;
+
+    // Beat times are relative to the first beat, in seconds, to keep float precision.
+    private long baseMillis = -1;
+    private long beatMillis;
+
+    private int program;
+    private int beatHandle;
+    private int nowHandle;
+    private int windowHandle;
+    private int rangeHandle;
+    private int colorHandle;
+    private int width;
+    private int height;
+
+    /**
+     * Called on the GL thread for the RR intervals and gaps of the sensor.
+     */
+    @Override
+    public void onEvent(SensorEvent event) {
+        switch (event.getType()) {
+            case SensorEvent.TYPE_RR_INTERVAL:
+                append(event.getTimeMillis(), event.getValue() * 1000f / 1024);
+                break;
+            case SensorEvent.TYPE_GAP:
+                // Start over from the time of the next interval, in a new strip.
+                beatMillis = -1;
+                gap = true;
+                break;
+        }
+    }
+
+    private void append(long timeMillis, float rr) {
+        if (baseMillis < 0) {
+            baseMillis = timeMillis;
+            beatMillis = -1;
+        }
+        // A measurement can carry several intervals, the last one ends about when it
+        // was received.
+        long beat = beatMillis < 0 ? timeMillis : beatMillis + Math.round(rr);
+        if (Math.abs(beat - timeMillis) > RESYNC_MILLIS)
+            beat = Math.max(timeMillis, beatMillis);
+        beatMillis = beat;
+
+        final float seconds = (beat - baseMillis) / 1000f;
+        put(next, seconds, rr);
+        dirtyFirst = Math.min(dirtyFirst, next);
+        dirtyLast = Math.max(dirtyLast, next);
+        // Mirrored after the end of the ring.
+        if (next == 0) {
+            put(CAPACITY, seconds, rr);
+            mirrorDirty = true;
+        }
+        next = (next + 1) % CAPACITY;
+        if (count < CAPACITY)
+            count++;
+
+        if (gap && appended > 0) {
+            breaks[(firstBreak + breakCount) % CAPACITY] = appended;
+            breakCount++;
+        }
+        gap = false;
+        appended++;
+        // A break at the oldest beat left in the ring no longer splits anything.
+        while (breakCount > 0 && breaks[firstBreak] <= appended - count) {
+            firstBreak = (firstBreak + 1) % CAPACITY;
+            breakCount--;
+        }
+    }
+
+    private void put(int index, float seconds, float rr) {
+        vertices.put(index * COORDINATES, seconds);
+        vertices.put(index * COORDINATES + 1, rr);
+    }
+
+    void onSurfaceCreated() {
+        program = PulseRenderer.createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        beatHandle = GLES20.glGetAttribLocation(program, "aBeat");
+        nowHandle = GLES20.glGetUniformLocation(program, "uNow");
+        windowHandle = GLES20.glGetUniformLocation(program, "uWindow");
+        rangeHandle = GLES20.glGetUniformLocation(program, "uRange");
+        colorHandle = GLES20.glGetUniformLocation(program, "uColor");
+
+        // The whole ring once, the beats received so far included.
+        GLES20.glGenBuffers(1, buffer, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+        vertices.position(0);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.capacity() * 4, vertices,
+                GLES20.GL_DYNAMIC_DRAW);
+        dirtyFirst = Integer.MAX_VALUE;
+        dirtyLast = -1;
+        mirrorDirty = false;
+        Log.d(TAG, "Tachogram ring of " + CAPACITY + " beats, " + count + " filled");
+    }
+
+    void onSurfaceChanged(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Uploads the new beats and draws the plot, then restores the full viewport.
+     *
+     * @param nowMillis current time on the clock of the sensor events.
+     */
+    void draw(long nowMillis) {
+        if (count < 2)
+            return;
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+        if (dirtyFirst <= dirtyLast) {
+            upload(dirtyFirst, dirtyLast - dirtyFirst + 1);
+            dirtyFirst = Integer.MAX_VALUE;
+            dirtyLast = -1;
+        }
+        if (mirrorDirty) {
+            upload(CAPACITY, 1);
+            mirrorDirty = false;
+        }
+
+        GLES20.glViewport(0, 0, width, (int) (height * HEIGHT));
+        GLES20.glUseProgram(program);
+        GLES20.glUniform1f(nowHandle, (nowMillis - baseMillis) / 1000f);
+        GLES20.glUniform1f(windowHandle, WINDOW_SECONDS);
+        GLES20.glUniform2f(rangeHandle, MIN_RR, MAX_RR);
+        GLES20.glUniform4f(colorHandle, 1, 1, 1, 1);
+        GLES20.glEnableVertexAttribArray(beatHandle);
+        GLES20.glVertexAttribPointer(beatHandle, COORDINATES, GLES20.GL_FLOAT, false,
+                VERTEX_SIZE, 0);
+        // One strip from the oldest beat to the newest, split at every gap.
+        long first = appended - count;
+        for (int i = 0; i < breakCount; i++) {
+            final long end = breaks[(firstBreak + i) % CAPACITY];
+            drawStrip(first, end);
+            first = end;
+        }
+        drawStrip(first, appended);
+        GLES20.glDisableVertexAttribArray(beatHandle);
+        GLES20.glViewport(0, 0, width, height);
+    }
+
+    // Draws the beats with sequences from first up to end, exclusive.
+    private static void drawStrip(long first, long end) {
+        if (end - first < 2)
+            return;
+        final int start = (int) (first % CAPACITY);
+        final int length = (int) (end - first);
+        if (start + length <= CAPACITY) {
+            GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, start, length);
+        } else {
+            // To the end of the ring and its mirrored first vertex, then from the start
+            // of the ring.
+            GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, start, CAPACITY - start + 1);
+            final int rest = start + length - CAPACITY;
+            if (rest > 1)
+                GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 0, rest);
+        }
+    }
+
+    private void upload(int first, int count) {
+        vertices.position(first * COORDINATES);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, first * VERTEX_SIZE, count * VERTEX_SIZE,
+                vertices);
+    }
+}
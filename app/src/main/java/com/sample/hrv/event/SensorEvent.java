@@ -0,0 +1,46 @@
+package com.sample.hrv.event;
+
+/**
+ * Typed sensor event delivered by the {@link SensorEventBus}. Instances are reused by
+ * the bus and only valid during the {@link SensorEventBus.Subscriber#onEvent} call.
+ */
+public final class SensorEvent {
+
+    // Heart rate in beats per minute. Published last for each measurement, so it
+    // follows the other events of the same measurement.
+    public static final int TYPE_HEART_RATE = 1;
+    // RR interval as transmitted, in 1/1024 s.
+    public static final int TYPE_RR_INTERVAL = 2;
+    // Sensor contact state, published when it changes.
+    public static final int TYPE_CONTACT = 3;
+    // Data was missing, e.g. while the sensor reconnected. Published with the first
+    // measurement after the gap, the value is the length of the gap in milliseconds.
+    public static final int TYPE_GAP = 4;
+
+    int type;
+    long timeMillis;
+    int value;
+    int flags;
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the time the event was received, in {@code SystemClock.elapsedRealtime()}.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @return the flags of the measurement the event was decoded from.
+     */
+    public int getFlags() {
+        return flags;
+    }
+}
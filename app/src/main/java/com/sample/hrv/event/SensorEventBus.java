@@ -0,0 +1,156 @@
+package com.sample.hrv.event;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process publish/subscribe channel for sensor events.
+ *
+ * Every subscription has its own single producer, single consumer ring of primitive
+ * events, so publishing takes no locks and allocates nothing. The subscriber is run on
+ * its executor when the ring goes from empty to non-empty and drains everything that
+ * has arrived by then; a slow subscriber therefore sees events in batches instead of
+ * delaying the publisher or other subscribers. Events published while a ring is full
+ * are dropped and counted.
+ *
+ * Events must be published from one thread at a time, e.g. the Bluetooth callbacks.
+ * Subscribing and unsubscribing is allowed from any thread.
+ */
+public class SensorEventBus {
+
+    public interface Subscriber {
+        void onEvent(SensorEvent event);
+    }
+
+    // Runs the subscriber on the publishing thread.
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final Subscription[] NONE = new Subscription[0];
+
+    private final Object lock = new Object();
+    private volatile Subscription[] subscriptions = NONE;
+
+    /**
+     * @param capacity ring size, rounded up to a power of two.
+     */
+    public Subscription subscribe(Subscriber subscriber, Executor executor, int capacity) {
+        final Subscription subscription = new Subscription(subscriber, executor, capacity);
+        synchronized (lock) {
+            final Subscription[] current = subscriptions;
+            final Subscription[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = subscription;
+            subscriptions = next;
+        }
+        return subscription;
+    }
+
+    /**
+     * Stops delivery to the subscription. Events already queued are discarded.
+     */
+    public void unsubscribe(Subscription subscription) {
+        if (subscription == null)
+            return;
+        subscription.cancelled = true;
+        synchronized (lock) {
+            final Subscription[] current = subscriptions;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscription) {
+                    final Subscription[] next = new Subscription[current.length - 1];
+                    System.arraycopy(current, 0, next, 0, i);
+                    System.arraycopy(current, i + 1, next, i, next.length - i);
+                    subscriptions = next;
+                    return;
+                }
+            }
+        }
+    }
+
+    public void publish(int type, long timeMillis, int value, int flags) {
+        final Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            current[i].offer(type, timeMillis, value, flags);
+        }
+    }
+
+    public static class Subscription implements Runnable {
+        private final Subscriber subscriber;
+        private final Executor executor;
+        private final int mask;
+        private final int[] types;
+        private final long[] times;
+        private final int[] values;
+        private final int[] flags;
+
+        // Next slot to write, owned by the publisher.
+        private final AtomicLong tail = new AtomicLong();
+        // Next slot to read, owned by the subscriber.
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final SensorEvent event = new SensorEvent();
+        private volatile long dropped;
+        volatile boolean cancelled;
+
+        Subscription(Subscriber subscriber, Executor executor, int capacity) {
+            if (capacity < 1 || capacity > 1 << 20)
+                throw new IllegalArgumentException("Invalid capacity " + capacity);
+            int size = 1;
+            while (size < capacity)
+                size <<= 1;
+            this.subscriber = subscriber;
+            this.executor = executor;
+            mask = size - 1;
+            types = new int[size];
+            times = new long[size];
+            values = new int[size];
+            flags = new int[size];
+        }
+
+        public long getDroppedEvents() {
+            return dropped;
+        }
+
+        void offer(int type, long timeMillis, int value, int flag) {
+            final long t = tail.get();
+            if (t - head.get() > mask) {
+                dropped++;
+                return;
+            }
+            final int slot = (int) t & mask;
+            types[slot] = type;
+            times[slot] = timeMillis;
+            values[slot] = value;
+            flags[slot] = flag;
+            tail.lazySet(t + 1);
+
+            if (!scheduled.get() && scheduled.compareAndSet(false, true))
+                executor.execute(this);
+        }
+
+        // Drains the ring on the executor.
+        @Override
+        public void run() {
+            do {
+                long h = head.get();
+                final long t = tail.get();
+                while (h < t && !cancelled) {
+                    final int slot = (int) h & mask;
+                    event.type = types[slot];
+                    event.timeMillis = times[slot];
+                    event.value = values[slot];
+                    event.flags = flags[slot];
+                    head.lazySet(++h);
+                    subscriber.onEvent(event);
+                }
+                scheduled.set(false);
+                // Events published after the last check would not schedule another run.
+            } while (!cancelled && tail.get() != head.get() && scheduled.compareAndSet(false, true));
+        }
+    }
+}
@@ -1,19 +1,27 @@
 package com.sample.hrv.sensor;
 
 
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.util.Log;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import com.sample.hrv.analysis.FrequencyDomainHrv;
+import com.sample.hrv.analysis.HrvAnalyzer;
+import com.sample.hrv.analysis.HrvSnapshot;
+import com.sample.hrv.analysis.TimeDomainHrv;
+import com.sample.hrv.event.SensorEvent;
+import com.sample.hrv.event.SensorEventBus;
 
 import static java.lang.Math.pow;
 
 /**
  * Created by  by olli on 3/28/2014.
  */
-public class BleHeartRateSensor extends BleSensor<float[]> {
+public class BleHeartRateSensor extends BleSensor<HeartRateMeasurement> {
 
-    private final static String TAG = BleHeartRateSensor.class.getSimpleName();
+    private final static Logger LOG = Logger.getLogger(BleHeartRateSensor.class.getSimpleName());
 
     private static final String UUID_SENSOR_BODY_LOCATION = "00002a38-0000-1000-8000-00805f9b34fb";
+    private static final UUID SENSOR_BODY_LOCATION = UUID.fromString(UUID_SENSOR_BODY_LOCATION);
     
     private static final int SENSOR_BODY_LOCATION_OTHER = 0;
     private static final int SENSOR_BODY_LOCATION_CHEST = 1;
@@ -23,7 +31,34 @@ public class BleHeartRateSensor extends BleSensor<float[]> {
     private static final int SENSOR_BODY_LOCATION_EAR = 5;
     private static final int SENSOR_BODY_LOCATION_FOOT = 6;
     
+    // Sliding window of the time-domain HRV statistics.
+    private static final int HRV_WINDOW_MILLIS = 60 * 1000;
+    private static final int HRV_MAX_BEATS = 300;
+    // Spectral analysis: 64 s of tachogram resampled at 4 Hz, updated every 4 s.
+    private static final double SPECTRUM_SAMPLE_RATE_HZ = 4.0;
+    private static final int SPECTRUM_WINDOW_SAMPLES = 256;
+    private static final int SPECTRUM_HOP_SAMPLES = 16;
+    // Artifact correction against the median of the last 11 beats, 20% tolerance.
+    private static final int ARTIFACT_MEDIAN_WINDOW = 11;
+    private static final double ARTIFACT_THRESHOLD = 0.2;
+
     private int location = -1;
+
+    private final HeartRateMeasurement[] measurements = {
+            new HeartRateMeasurement(), new HeartRateMeasurement()
+    };
+    private int nextMeasurement;
+
+    private final HrvAnalyzer hrv = new HrvAnalyzer(
+            new TimeDomainHrv(HRV_MAX_BEATS, HRV_WINDOW_MILLIS),
+            new FrequencyDomainHrv(SPECTRUM_SAMPLE_RATE_HZ, SPECTRUM_WINDOW_SAMPLES, SPECTRUM_HOP_SAMPLES),
+            ARTIFACT_MEDIAN_WINDOW, ARTIFACT_THRESHOLD);
+
+    // Publishing state, only used on the Bluetooth callback thread.
+    private boolean unpublished;
+    private int lastContact = Integer.MIN_VALUE;
+    private boolean interrupted;
+    private long lastPublishedMillis = -1;
     
 	BleHeartRateSensor() {
 		super();
@@ -65,153 +100,104 @@ public class BleHeartRateSensor extends BleSensor<float[]> {
     }
 
     @Override
-    public boolean onCharacteristicRead(BluetoothGattCharacteristic c) {
-        super.onCharacteristicRead(c);
+    public boolean onCharacteristicRead(UUID characteristicUuid, byte[] value) {
+        super.onCharacteristicRead(characteristicUuid, value);
 
-        Log.d(TAG, "onCharacteristicsReas");
-        
-        if ( !c.getUuid().toString().equals(UUID_SENSOR_BODY_LOCATION) )
+        if ( !SENSOR_BODY_LOCATION.equals(characteristicUuid) || value == null || value.length < 1 )
             return false;
 
-        location = c.getProperties();
-        Log.d(TAG, "Sensor body location: " + location);
+        location = value[0] & 0xff;
+        LOG.fine("Sensor body location: " + location);
         return true;
     }
 
 	@Override
 	public String getDataString() {
-		final HRData data = getHRData();
-		return "heart rate=" + data.getHR() + "\ninterval=" + data.getHRI();
+		return getHRData().toDataString();
 	}
 
 	public HRData getHRData(){
-		final float[] data = getData();
-		return new HRData(data[0],data[1]);
+		final HeartRateMeasurement data = getData();
+		if (data == null || data.getRrCount() == 0)
+			return new HRData(data == null ? 0 : data.getHeartRate(), -1.0f);
+		return new HRData(data.getHeartRate(), data.getRrInterval(0));
 	}
 
+	/**
+	 * Decodes the notification into one of two reusable records and publishes it.
+	 * A published record is not overwritten before the notification after next,
+	 * so readers on other threads see a complete measurement.
+	 */
 	@Override
-	public float[] parse(BluetoothGattCharacteristic c) {
-
-		double heartRate = extractHeartRate(c);
-		double contact = extractContact(c);
-		double energy = extractEnergyExpended(c);
-		Integer[] interval = extractBeatToBeatInterval(c);
-		
-		float[] result;
-		if (interval != null) {
-			result = new float[interval.length + 1];
-		} else {
-			result = new float[2];
-			result[1] = -1.0f;
+	public HeartRateMeasurement parse(byte[] value) {
+		final HeartRateMeasurement next = measurements[nextMeasurement];
+		if (!next.decode(value)) {
+			LOG.warning("Malformed heart rate measurement");
+			return getData();
 		}
-		result[0] = (float) heartRate;
-		
-		if (interval != null) {
-			for (int i = 0; i < interval.length; i++) {
-				result[i+1] = interval[i].floatValue();
-			}
+		nextMeasurement ^= 1;
+		unpublished = true;
+
+		for (int i = 0; i < next.getRrCount(); i++) {
+			hrv.addRr(next.getRrMillis(i));
 		}
-		
-		return result;
+		return next;
 	}
 
-	private static double extractHeartRate(
-			BluetoothGattCharacteristic characteristic) {
-
-		int flag = characteristic.getProperties();
-		Log.d(TAG, "Heart rate flag: " + flag);
-		int format;
-		// Heart rate bit number format
-		if ((flag & 0x01) != 0) {
-			format = BluetoothGattCharacteristic.FORMAT_UINT16;
-			Log.d(TAG, "Heart rate format UINT16.");
-		} else {
-			format = BluetoothGattCharacteristic.FORMAT_UINT8;
-			Log.d(TAG, "Heart rate format UINT8.");
+	/**
+	 * Publishes a gap after a reconnect, the contact state if it changed, every RR
+	 * interval and, last, the heart rate of the current measurement.
+	 */
+	@Override
+	public void publish(SensorEventBus bus, long timeMillis) {
+		if (!unpublished)
+			return;
+		unpublished = false;
+
+		final HeartRateMeasurement data = getData();
+		final int flags = data.getFlags();
+		if (interrupted) {
+			interrupted = false;
+			if (lastPublishedMillis >= 0)
+				bus.publish(SensorEvent.TYPE_GAP, timeMillis,
+						(int) Math.min(Integer.MAX_VALUE, timeMillis - lastPublishedMillis), flags);
 		}
-		final int heartRate = characteristic.getIntValue(format, 1);
-		Log.d(TAG, String.format("Received heart rate: %d", heartRate));
-		return heartRate;
-	}
-	
-	private static double extractContact(
-			BluetoothGattCharacteristic characteristic) {
-
-		int flag = characteristic.getProperties();
-		int format = -1;
-		// Sensor contact status
-		if ((flag & 0x02) != 0) {
-			Log.d(TAG, "Heart rate sensor contact info exists");
-			if ((flag & 0x04) != 0) {
-				Log.d(TAG, "Heart rate sensor contact is ON");
-			} else {
-				Log.d(TAG, "Heart rate sensor contact is OFF");
-			}
-		} else  {
-			Log.d(TAG, "Heart rate sensor contact info doesn't exists");
+		lastPublishedMillis = timeMillis;
+		if (data.getContact() != lastContact) {
+			lastContact = data.getContact();
+			bus.publish(SensorEvent.TYPE_CONTACT, timeMillis, lastContact, flags);
 		}
-		//final int heartRate = characteristic.getIntValue(format, 1);
-		//Log.d(TAG, String.format("Received heart rate: %d", heartRate));
-		return 0.0d;
-	}
-	
-	private static double extractEnergyExpended(
-			BluetoothGattCharacteristic characteristic) {
-
-		int flag = characteristic.getProperties();
-		int format = -1;
-		// Energy calculation status
-		if ((flag & 0x08) != 0) {
-			Log.d(TAG, "Heart rate energy calculation exists.");
-		} else {
-			Log.d(TAG, "Heart rate energy calculation doesn't exists.");
+		for (int i = 0; i < data.getRrCount(); i++) {
+			bus.publish(SensorEvent.TYPE_RR_INTERVAL, timeMillis, data.getRrInterval(i), flags);
 		}
-		//final int heartRate = characteristic.getIntValue(format, 1);
-		//Log.d(TAG, String.format("Received heart rate: %d", heartRate));
-		return 0.0d;
+		bus.publish(SensorEvent.TYPE_HEART_RATE, timeMillis, data.getHeartRate(), flags);
 	}
-	
-	private static Integer[] extractBeatToBeatInterval(
-			BluetoothGattCharacteristic characteristic) {
-
-        int flag = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, 0);
-        int offset; // This depends on hear rate value format and if there is energy data
-
-        if ((flag & 0x01) != 0) {
-            Log.d(TAG, "Heart rate format UINT16.");
-            offset = 3;
-        } else {
-            Log.d(TAG, "Heart rate format UINT8.");
-            offset = 2;
-        }
-        if ((flag & 0x08) != 0) {
-            // calories present
-			int energy = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, offset);
-            offset += 2;
-            Log.d(TAG, "Received energy: {}"+ energy);
-        }
-        if ((flag & 0x16) != 0){
-            // RR stuff.
-            Log.d(TAG, "RR stuff found at offset: "+ offset);
-            Log.d(TAG, "RR length: "+ (characteristic.getValue()).length);
-			int rr_count = ((characteristic.getValue()).length - offset) / 2;
-            Log.d(TAG, "RR length: "+ (characteristic.getValue()).length);
-            Log.d(TAG, "rr_count: "+ rr_count);
-			if (rr_count > 0) {
-				Integer[] mRr_values = new Integer[rr_count];
-				for (int i = 0; i < rr_count; i++) {
-					mRr_values[i] = characteristic.getIntValue(
-							BluetoothGattCharacteristic.FORMAT_UINT16, offset);
-					offset += 2;
-					Log.d(TAG, "Received RR: " + mRr_values[i]);
-				}
-				return mRr_values;
-			}
-        }
-        Log.d(TAG, "No RR data on this update: ");
-        return null;
+
+	/**
+	 * Copies the HRV statistics of the current window into {@code out}.
+	 */
+	public void getHrvSnapshot(HrvSnapshot out) {
+		hrv.snapshot(out);
 	}
 
+	/**
+	 * Keeps the HRV statistics across the reconnect, without taking the beats on both
+	 * sides of the gap as adjacent.
+	 */
+	@Override
+	public void interrupt() {
+		interrupted = true;
+		lastContact = Integer.MIN_VALUE;
+		hrv.gap();
+	}
 
+	/**
+	 * Starts the HRV statistics over. Not called when the connection restores the sensor
+	 * after a reconnect, see {@link #interrupt()}.
+	 */
+	@Override
+	public void reset() {
+		hrv.clear();
+	}
 
 }
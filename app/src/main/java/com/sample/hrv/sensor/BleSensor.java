@@ -1,26 +1,29 @@
 package com.sample.hrv.sensor;
 
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.util.Log;
-
 import java.util.UUID;
 
 import com.sample.hrv.BluetoothGattExecutor;
+import com.sample.hrv.event.SensorEventBus;
+import com.sample.hrv.transport.GattTransport;
 
 
 /**
  * Created by steven on 9/3/13.
  * Modified by olli on 3/28/2014.
+ *
+ * Sensors parse raw characteristic values and build their actions on a
+ * {@link GattTransport}, so they do not depend on the Android framework.
+ *
+ * The UUID strings name the attributes in the UI; connections and transports use the
+ * parsed {@link #getServiceId()}, {@link #getDataId()} and {@link #getConfigId()}.
  */
 public abstract class BleSensor<T> {
-    private final static String TAG = BleSensor.class.getSimpleName();
-
-    private static String CHARACTERISTIC_CONFIG = "00002902-0000-1000-8000-00805f9b34fb";
+    private volatile T data;
 
-    private T data;
+    // Parsed on first use. UUIDs are immutable, a race only parses twice.
+    private UUID serviceId;
+    private UUID dataId;
+    private UUID configId;
 
     protected BleSensor() {
     }
@@ -39,6 +42,27 @@ public abstract class BleSensor<T> {
     public abstract String getDataUUID();
     public abstract String getConfigUUID();
 
+    public final UUID getServiceId() {
+        UUID id = serviceId;
+        if (id == null)
+            serviceId = id = UUID.fromString(getServiceUUID());
+        return id;
+    }
+
+    public final UUID getDataId() {
+        UUID id = dataId;
+        if (id == null)
+            dataId = id = UUID.fromString(getDataUUID());
+        return id;
+    }
+
+    public final UUID getConfigId() {
+        UUID id = configId;
+        if (id == null)
+            configId = id = UUID.fromString(getConfigUUID());
+        return id;
+    }
+
     public boolean isConfigUUID(String uuid) {
         return false;
     }
@@ -49,23 +73,49 @@ public abstract class BleSensor<T> {
 
     public abstract String getDataString();
 
-    public void onCharacteristicChanged(BluetoothGattCharacteristic c) {
-        data = parse(c);
+    public void onCharacteristicChanged(byte[] value) {
+        data = parse(value);
     }
 
-    public boolean onCharacteristicRead(BluetoothGattCharacteristic c) {
+    /**
+     * @return true if the sensor consumed the value read from one of its characteristics.
+     */
+    public boolean onCharacteristicRead(UUID characteristicUuid, byte[] value) {
         return false;
     }
 
+    /**
+     * Publishes the value parsed last as typed events. Sensors without typed events
+     * publish nothing.
+     *
+     * @param timeMillis time the value was received, in {@code SystemClock.elapsedRealtime()}.
+     */
+    public void publish(SensorEventBus bus, long timeMillis) {
+    }
+
+    /**
+     * Called when the sensor is enabled on a connection it was not enabled on yet. The
+     * data received from then on starts a new series.
+     */
+    public void reset() {
+    }
+
+    /**
+     * Called when the connection of the enabled sensor was lost. The data received after
+     * a reconnect continues the same series, with a gap.
+     */
+    public void interrupt() {
+    }
+
     private byte[] getConfigValues(boolean enable) {
         return new byte[] { (byte)(enable ? 1 : 0) };
     }
 
-    protected abstract T parse(BluetoothGattCharacteristic c);
+    protected abstract T parse(byte[] value);
 
     public BluetoothGattExecutor.ServiceAction[] enable(final boolean enable) {
         return new BluetoothGattExecutor.ServiceAction[] {
-                write(getConfigUUID(), getConfigValues(enable)),
+                write(getConfigId(), getConfigValues(enable)),
                 notify(enable)
         };
     }
@@ -74,61 +124,30 @@ public abstract class BleSensor<T> {
         return BluetoothGattExecutor.ServiceAction.NULL;
     }
 
-    public BluetoothGattExecutor.ServiceAction read(final String uuid) {
-        return new BluetoothGattExecutor.ServiceAction() {
+    public BluetoothGattExecutor.ServiceAction read(final UUID uuid) {
+        return new BluetoothGattExecutor.ServiceAction(BluetoothGattExecutor.ServiceAction.TYPE_READ, uuid.toString()) {
             @Override
-            public boolean execute(BluetoothGatt bluetoothGatt) {
-                final BluetoothGattCharacteristic characteristic = getCharacteristic(bluetoothGatt, uuid);
-                bluetoothGatt.readCharacteristic(characteristic);
-                return false;
+            public boolean execute(GattTransport transport) {
+                return !transport.readCharacteristic(getServiceId(), uuid);
             }
         };
     }
 
-    private BluetoothGattExecutor.ServiceAction write(final String uuid, final byte[] value) {
-        return new BluetoothGattExecutor.ServiceAction() {
+    private BluetoothGattExecutor.ServiceAction write(final UUID uuid, final byte[] value) {
+        return new BluetoothGattExecutor.ServiceAction(BluetoothGattExecutor.ServiceAction.TYPE_WRITE, uuid.toString()) {
             @Override
-            public boolean execute(BluetoothGatt bluetoothGatt) {
-                final BluetoothGattCharacteristic characteristic = getCharacteristic(bluetoothGatt, uuid);
-                
-                if (characteristic != null) {
-                	characteristic.setValue(value);
-                	bluetoothGatt.writeCharacteristic(characteristic);
-                    return false;
-                }
-
-                Log.i(TAG, "Characteristc not found with uuid: " + uuid);
-                return true;
+            public boolean execute(GattTransport transport) {
+                return !transport.writeCharacteristic(getServiceId(), uuid, value);
             }
         };
     }
 
     public BluetoothGattExecutor.ServiceAction notify(final boolean start) {
-        return new BluetoothGattExecutor.ServiceAction() {
+        return new BluetoothGattExecutor.ServiceAction(BluetoothGattExecutor.ServiceAction.TYPE_WRITE_DESCRIPTOR, getDataUUID()) {
             @Override
-            public boolean execute(BluetoothGatt bluetoothGatt) {
-                final UUID CCC = UUID.fromString(CHARACTERISTIC_CONFIG);
-
-                final BluetoothGattCharacteristic dataCharacteristic = getCharacteristic(bluetoothGatt, getDataUUID());
-                final BluetoothGattDescriptor config = dataCharacteristic.getDescriptor(CCC);
-                if (config == null)
-                    return true;
-
-                // enable/disable locally
-                bluetoothGatt.setCharacteristicNotification(dataCharacteristic, start);
-                // enable/disable remotely
-                config.setValue(start ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                bluetoothGatt.writeDescriptor(config);
-                return false;
+            public boolean execute(GattTransport transport) {
+                return !transport.setNotification(getServiceId(), getDataId(), start);
             }
         };
     }
-
-    private BluetoothGattCharacteristic getCharacteristic(BluetoothGatt bluetoothGatt, String uuid) {
-        final UUID serviceUuid = UUID.fromString(getServiceUUID());
-        final UUID characteristicUuid = UUID.fromString(uuid);
-
-        final BluetoothGattService service = bluetoothGatt.getService(serviceUuid);
-        return service.getCharacteristic(characteristicUuid);
-    }
-}
\ No newline at end of file
+}
@@ -1,24 +1,39 @@
 package com.sample.hrv.sensor;
 
 import java.util.HashMap;
+import java.util.UUID;
 
 /**
  * Created by steven on 9/4/13.
  * Modified by olli on 3/28/2014.
+ *
+ * The instances returned by {@link #getSensor(UUID)} describe the known sensors, e.g.
+ * for names in the UI. Every connection parses its data with its own instances from
+ * {@link #createSensors()}. Sensors are keyed by their parsed service UUID, the string
+ * lookup is for the UI only.
  */
 public class BleSensors {
 
-    private static HashMap<String, BleSensor<?>> SENSORS = new HashMap<>();
+    private static HashMap<UUID, BleSensor<?>> SENSORS = createSensors();
 
-    static {
-        final BleTestSensor testSensor = new BleTestSensor();
-        final BleHeartRateSensor heartRateSensor = new BleHeartRateSensor();
-
-        SENSORS.put(testSensor.getServiceUUID(), testSensor);
-        SENSORS.put(heartRateSensor.getServiceUUID(), heartRateSensor);
+    public static BleSensor<?> getSensor(UUID uuid) {
+        return SENSORS.get(uuid);
     }
 
     public static BleSensor<?> getSensor(String uuid) {
-        return SENSORS.get(uuid);
+        return SENSORS.get(UUID.fromString(uuid));
+    }
+
+    /**
+     * @return new instances of all known sensors by service UUID.
+     */
+    public static HashMap<UUID, BleSensor<?>> createSensors() {
+        final HashMap<UUID, BleSensor<?>> sensors = new HashMap<>();
+        final BleTestSensor testSensor = new BleTestSensor();
+        final BleHeartRateSensor heartRateSensor = new BleHeartRateSensor();
+
+        sensors.put(testSensor.getServiceId(), testSensor);
+        sensors.put(heartRateSensor.getServiceId(), heartRateSensor);
+        return sensors;
     }
 }
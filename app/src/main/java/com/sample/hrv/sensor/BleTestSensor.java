@@ -2,8 +2,6 @@ package com.sample.hrv.sensor;
 
 import com.sample.hrv.BluetoothGattExecutor;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 
 /**
  * Created by steven on 9/3/13. 
@@ -51,7 +49,7 @@ class BleTestSensor extends BleSensor<Void> {
     }
 
     @Override
-    public Void parse(BluetoothGattCharacteristic c) {
+    public Void parse(byte[] value) {
         //TODO: implement method
         return null;
     }
@@ -8,7 +8,7 @@ public class HRData {
     final float HR;
     final float HRI;
 
-    HRData(float HR, float HRI){
+    public HRData(float HR, float HRI){
         this.HR = HR;
         this.HRI = HRI;
     }
@@ -20,4 +20,8 @@ public class HRData {
     public float getHRI() {
         return HRI;
     }
+
+    public String toDataString() {
+        return "heart rate=" + HR + "\ninterval=" + HRI;
+    }
 }
@@ -0,0 +1,176 @@
+package com.sample.hrv.sensor;
+
+/**
+ * Decoded Heart Rate Measurement (0x2A37) characteristic value.
+ *
+ * The record is meant to be reused: {@link #decode(byte[], int, int)} parses the raw
+ * payload in a single pass and overwrites the previous contents, so the notification
+ * path does not allocate anything. It has no Android dependencies.
+ */
+public class HeartRateMeasurement {
+
+    public static final int FLAG_HEART_RATE_UINT16 = 0x01;
+    public static final int FLAG_CONTACT_DETECTED = 0x02;
+    public static final int FLAG_CONTACT_SUPPORTED = 0x04;
+    public static final int FLAG_ENERGY_EXPENDED = 0x08;
+    public static final int FLAG_RR_INTERVALS = 0x10;
+
+    public static final int CONTACT_NOT_SUPPORTED = -1;
+    public static final int CONTACT_NOT_DETECTED = 0;
+    public static final int CONTACT_DETECTED = 1;
+
+    public static final int ENERGY_NOT_PRESENT = -1;
+
+    // Largest attribute value is 512 bytes, one of them taken by the flags.
+    public static final int MAX_RR_INTERVALS = (512 - 1) / 2;
+
+    private int flags;
+    private int heartRate;
+    private int contact = CONTACT_NOT_SUPPORTED;
+    private int energyExpended = ENERGY_NOT_PRESENT;
+    private int rrCount;
+    private final int[] rrIntervals = new int[MAX_RR_INTERVALS];
+
+    public boolean decode(byte[] value) {
+        return value != null && decode(value, 0, value.length);
+    }
+
+    /**
+     * Decodes a raw characteristic value into this record.
+     *
+     * @return false if the payload is too short to hold the fields its flags announce.
+     *         The record is cleared in that case.
+     */
+    public boolean decode(byte[] value, int offset, int length) {
+        clear();
+        if (length < 2)
+            return false;
+
+        final int end = offset + length;
+        int pos = offset;
+        final int flags = value[pos++] & 0xff;
+
+        if ((flags & FLAG_HEART_RATE_UINT16) != 0) {
+            if (end - pos < 2)
+                return false;
+            heartRate = uint16(value, pos);
+            pos += 2;
+        } else {
+            heartRate = value[pos++] & 0xff;
+        }
+
+        if ((flags & FLAG_CONTACT_SUPPORTED) != 0) {
+            contact = (flags & FLAG_CONTACT_DETECTED) != 0 ? CONTACT_DETECTED : CONTACT_NOT_DETECTED;
+        }
+
+        if ((flags & FLAG_ENERGY_EXPENDED) != 0) {
+            if (end - pos < 2) {
+                clear();
+                return false;
+            }
+            energyExpended = uint16(value, pos);
+            pos += 2;
+        }
+
+        if ((flags & FLAG_RR_INTERVALS) != 0) {
+            int count = (end - pos) / 2;
+            if (count > MAX_RR_INTERVALS)
+                count = MAX_RR_INTERVALS;
+            for (int i = 0; i < count; i++) {
+                rrIntervals[i] = uint16(value, pos);
+                pos += 2;
+            }
+            rrCount = count;
+        }
+
+        this.flags = flags;
+        return true;
+    }
+
+    /**
+     * Encodes a measurement the way a sensor sends it, the inverse of {@link #decode}.
+     * The heart rate takes two bytes if it does not fit one or the flags ask for it, and
+     * the energy and RR fields are present if their flags are set.
+     *
+     * @param out receives the payload, at most {@code 5 + 2 * rrCount} bytes.
+     * @return the length of the payload.
+     */
+    public static int encode(int flags, int heartRate, int energyExpended,
+                             int[] rrIntervals, int rrOffset, int rrCount, byte[] out) {
+        if (heartRate > 0xff)
+            flags |= FLAG_HEART_RATE_UINT16;
+        if (rrCount > 0)
+            flags |= FLAG_RR_INTERVALS;
+        int pos = 0;
+        out[pos++] = (byte) flags;
+        if ((flags & FLAG_HEART_RATE_UINT16) != 0) {
+            pos = putUint16(out, pos, heartRate);
+        } else {
+            out[pos++] = (byte) heartRate;
+        }
+        if ((flags & FLAG_ENERGY_EXPENDED) != 0) {
+            pos = putUint16(out, pos, energyExpended);
+        }
+        if ((flags & FLAG_RR_INTERVALS) != 0) {
+            for (int i = 0; i < rrCount; i++) {
+                pos = putUint16(out, pos, rrIntervals[rrOffset + i]);
+            }
+        }
+        return pos;
+    }
+
+    public void clear() {
+        flags = 0;
+        heartRate = 0;
+        contact = CONTACT_NOT_SUPPORTED;
+        energyExpended = ENERGY_NOT_PRESENT;
+        rrCount = 0;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getHeartRate() {
+        return heartRate;
+    }
+
+    public int getContact() {
+        return contact;
+    }
+
+    public int getEnergyExpended() {
+        return energyExpended;
+    }
+
+    public int getRrCount() {
+        return rrCount;
+    }
+
+    /**
+     * @return RR interval as transmitted, in units of 1/1024 seconds.
+     */
+    public int getRrInterval(int index) {
+        if (index < 0 || index >= rrCount)
+            throw new IndexOutOfBoundsException("RR index " + index + " of " + rrCount);
+        return rrIntervals[index];
+    }
+
+    public int getRrMillis(int index) {
+        return toMillis(getRrInterval(index));
+    }
+
+    public static int toMillis(int rrInterval) {
+        return (rrInterval * 1000 + 512) >> 10;
+    }
+
+    private static int putUint16(byte[] out, int pos, int value) {
+        out[pos] = (byte) value;
+        out[pos + 1] = (byte) (value >> 8);
+        return pos + 2;
+    }
+
+    private static int uint16(byte[] value, int pos) {
+        return (value[pos] & 0xff) | ((value[pos + 1] & 0xff) << 8);
+    }
+}
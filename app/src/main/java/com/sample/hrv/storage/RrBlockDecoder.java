@@ -0,0 +1,108 @@
+package com.sample.hrv.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streams the records of a {@link SessionFormat#FRAME_RR_BLOCK} payload, or of a
+ * {@link SessionFormat#FRAME_HR_BLOCK} payload with heart rates in place of the RR
+ * intervals. Both columns
+ * are read in place with absolute gets, so the decoder works directly on a mapped file
+ * and one instance can be reused for any number of blocks.
+ *
+ * Not thread safe.
+ */
+public class RrBlockDecoder {
+
+    private ByteBuffer source;
+    private int timePosition;
+    private int rrPosition;
+    private int end;
+    private int remaining;
+    private int min;
+    private int max;
+    private int time;
+    private int rr;
+
+    /**
+     * Starts decoding a block. {@code payload} is not modified.
+     *
+     * @param position start of the frame payload in {@code payload}.
+     * @param length payload length from the frame header.
+     * @param count record count from the frame header.
+     * @param earliestTime earliest record time from the frame header.
+     */
+    public void reset(ByteBuffer payload, int position, int length, int count, int earliestTime) {
+        if (length < SessionFormat.RR_BLOCK_HEADER_SIZE)
+            throw new IllegalArgumentException("Invalid RR block length " + length);
+        source = payload;
+        min = payload.getShort(position) & 0xffff;
+        max = payload.getShort(position + 2) & 0xffff;
+        timePosition = position + SessionFormat.RR_BLOCK_HEADER_SIZE;
+        rrPosition = timePosition + (payload.getShort(position + 4) & 0xffff);
+        end = position + length;
+        if (rrPosition > end)
+            throw new IllegalArgumentException("Invalid RR block time column");
+        remaining = count;
+        time = earliestTime;
+        rr = min;
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return false if the block has no more records.
+     */
+    public boolean next() {
+        if (remaining == 0)
+            return false;
+        remaining--;
+        time += zagZig(readVarint(true));
+        rr += zagZig(readVarint(false));
+        return true;
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    /**
+     * @return the RR interval as transmitted, in 1/1024 s.
+     */
+    public int getRr() {
+        return rr;
+    }
+
+    public int getMinRr() {
+        return min;
+    }
+
+    public int getMaxRr() {
+        return max;
+    }
+
+    public int remaining() {
+        return remaining;
+    }
+
+    private int readVarint(boolean timeColumn) {
+        int position = timeColumn ? timePosition : rrPosition;
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= end || shift > 28)
+                throw new IllegalArgumentException("Corrupt RR block");
+            final byte b = source.get(position++);
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                break;
+        }
+        if (timeColumn)
+            timePosition = position;
+        else
+            rrPosition = position;
+        return value;
+    }
+
+    private static int zagZig(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,116 @@
+package com.sample.hrv.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Collects RR intervals and encodes them as the payload of a
+ * {@link SessionFormat#FRAME_RR_BLOCK} frame. Heart rates are encoded the same way for
+ * a {@link SessionFormat#FRAME_HR_BLOCK} frame.
+ *
+ * Not thread safe.
+ */
+public class RrBlockEncoder {
+
+    private final int[] times;
+    private final int[] intervals;
+    private int count;
+    private int min;
+    private int max;
+    private int earliest;
+    private int latest;
+
+    public RrBlockEncoder(int blockSize) {
+        if (blockSize < 1 || blockSize > SessionFormat.RR_BLOCK_RECORDS)
+            throw new IllegalArgumentException("Invalid block size " + blockSize);
+        times = new int[blockSize];
+        intervals = new int[blockSize];
+        clear();
+    }
+
+    /**
+     * @param rr RR interval as transmitted, in 1/1024 s.
+     * @return true if the block is full and must be encoded before adding more.
+     */
+    public boolean add(int time, int rr) {
+        if (count == times.length)
+            throw new IllegalStateException("Block is full");
+        times[count] = time;
+        intervals[count] = rr;
+        count++;
+        min = Math.min(min, rr);
+        max = Math.max(max, rr);
+        earliest = Math.min(earliest, time);
+        latest = Math.max(latest, time);
+        return count == times.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getEarliestTime() {
+        return earliest;
+    }
+
+    public int getLatestTime() {
+        return latest;
+    }
+
+    public void clear() {
+        count = 0;
+        min = Integer.MAX_VALUE;
+        max = Integer.MIN_VALUE;
+        earliest = Integer.MAX_VALUE;
+        latest = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Writes the payload of the pending block to {@code out} and clears the encoder.
+     * {@code out} needs room for {@link #maxPayloadSize(int)} bytes.
+     */
+    public void encode(ByteBuffer out) {
+        encodePending(out);
+        clear();
+    }
+
+    /**
+     * Writes the payload of the records added so far to {@code out}, keeping them, so
+     * the block can be written again once it has grown.
+     */
+    public void encodePending(ByteBuffer out) {
+        out.putShort((short) min);
+        out.putShort((short) max);
+        final int lengthPosition = out.position();
+        out.putShort((short) 0);
+
+        final int timesStart = out.position();
+        int previous = earliest;
+        for (int i = 0; i < count; i++) {
+            putVarint(out, zigZag(times[i] - previous));
+            previous = times[i];
+        }
+        out.putShort(lengthPosition, (short) (out.position() - timesStart));
+
+        previous = min;
+        for (int i = 0; i < count; i++) {
+            putVarint(out, zigZag(intervals[i] - previous));
+            previous = intervals[i];
+        }
+    }
+
+    public static int maxPayloadSize(int records) {
+        return SessionFormat.RR_BLOCK_HEADER_SIZE + records * SessionFormat.RR_MAX_RECORD_SIZE;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
@@ -0,0 +1,76 @@
+package com.sample.hrv.storage;
+
+/**
+ * Layout of the binary session files. All numbers are big endian.
+ *
+ * <pre>
+ * file header:  magic "HRVS" (4), version (2), reserved (2), start time, ms since epoch (8)
+ * frame:        type (1), flags (1), record count (2), earliest and latest record time (4 + 4),
+ *               payload length (4), CRC32 of the payload (4), payload
+ * events:       records of kind (1), time (4), value (4)
+ * RR block:     minimum and maximum RR (2 + 2), length of the time column (2),
+ *               time column, RR column
+ * HR block:     the layout of a RR block, with heart rates instead of RR intervals
+ * </pre>
+ *
+ * The columns of a block hold zig-zag encoded deltas as varints: times relative to the
+ * previous time, starting at the earliest time of the frame, and values relative to
+ * the previous value, starting at the block minimum. A beat typically takes three bytes
+ * for its RR interval and two for its heart rate, plus its share of the block headers.
+ *
+ * Version 1 files store heart rates as events instead of HR blocks.
+ *
+ * Frames are only appended, except for the RR and HR blocks still being filled: they
+ * are the last frames of the file and are written again as they grow. Record times are
+ * milliseconds since the session start, so a reader can skip frames by their header.
+ * A frame with a bad length or checksum marks the end of the usable data, e.g. after a
+ * crash in the middle of a write.
+ */
+public final class SessionFormat {
+
+    public static final int MAGIC = 0x48525653; // "HRVS"
+    public static final int VERSION = 2;
+    // Oldest version readers still accept.
+    public static final int MIN_VERSION = 1;
+    public static final int FILE_HEADER_SIZE = 16;
+
+    public static final int FRAME_HEADER_SIZE = 20;
+    public static final int MAX_FRAME_RECORDS = 0xffff;
+
+    // Frame of fixed size event records.
+    public static final int FRAME_EVENTS = 1;
+
+    // Frame of RR intervals in columnar, delta encoded blocks.
+    public static final int FRAME_RR_BLOCK = 2;
+
+    // Frame of heart rates, encoded like a RR block. Since version 2.
+    public static final int FRAME_HR_BLOCK = 3;
+
+    // Event record: kind (1), time (4), value (4).
+    public static final int EVENT_SIZE = 9;
+
+    public static final int RR_BLOCK_HEADER_SIZE = 6;
+    public static final int RR_BLOCK_RECORDS = 256;
+    // Worst case size of one RR record, two varints of five bytes.
+    public static final int RR_MAX_RECORD_SIZE = 10;
+
+    // Heart rate in beats per minute. Written in HR blocks rather than as events since
+    // version 2.
+    public static final int KIND_HEART_RATE = 1;
+    // RR interval as transmitted, in 1/1024 s. Written in RR blocks rather than as events.
+    public static final int KIND_RR = 2;
+    // Sensor contact state, written when it changes.
+    public static final int KIND_CONTACT = 3;
+    // Start of a new track, the value is the track number within the session.
+    public static final int KIND_TRACK = 4;
+    // Rating of the current track.
+    public static final int KIND_RATING = 5;
+    // Missing data ending at the record time, the value is its length in milliseconds.
+    public static final int KIND_GAP = 6;
+
+    public static final int RATING_BAD = -1;
+    public static final int RATING_GOOD = 1;
+
+    private SessionFormat() {
+    }
+}
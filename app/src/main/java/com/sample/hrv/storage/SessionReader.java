@@ -0,0 +1,355 @@
+package com.sample.hrv.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Random access reader of a session file written by {@link SessionWriter}.
+ *
+ * The file is memory mapped and its frame headers are indexed once when it is opened.
+ * Finding the first frame of a time range is a binary search over that index, and the
+ * cursors read the records straight out of the mapping. Frames are expected in time
+ * order per frame type, as the writer appends them. Reading stops at the first frame
+ * with a bad length or checksum, see {@link #isTruncated()}.
+ *
+ * Cursors can be reused and several can be open at the same time. Does not depend on
+ * the Android framework.
+ */
+public class SessionReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final ByteBuffer map;
+    private final long startWallMillis;
+    private final FrameIndex eventFrames = new FrameIndex();
+    private final FrameIndex rrFrames = new FrameIndex();
+    private final FrameIndex hrFrames = new FrameIndex();
+    private boolean truncated;
+
+    public SessionReader(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Session file too large: " + path);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.limit() < SessionFormat.FILE_HEADER_SIZE || map.getInt(0) != SessionFormat.MAGIC)
+                throw new IOException("Not a session file: " + path);
+            final int version = map.getShort(4) & 0xffff;
+            if (version < SessionFormat.MIN_VERSION || version > SessionFormat.VERSION)
+                throw new IOException("Unsupported session file version " + version);
+            startWallMillis = map.getLong(8);
+            index();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the session start in ms since the epoch; record times are relative to it.
+     */
+    public long getStartWallMillis() {
+        return startWallMillis;
+    }
+
+    /**
+     * @return true if the file ends with a partial or corrupt frame, which is ignored.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int getFrameCount() {
+        return eventFrames.size + rrFrames.size + hrFrames.size;
+    }
+
+    public long getRrCount() {
+        return rrFrames.records;
+    }
+
+    /**
+     * @return the heart rates in HR blocks; version 1 files have them as events.
+     */
+    public long getHeartRateCount() {
+        return hrFrames.records;
+    }
+
+    /**
+     * Positions {@code cursor} on the RR intervals with {@code fromTime <= time < toTime}.
+     */
+    public RrCursor rr(int fromTime, int toTime, RrCursor cursor) {
+        cursor.reset(rrFrames, map, fromTime, toTime);
+        return cursor;
+    }
+
+    /**
+     * Positions {@code cursor} on the heart rates of the HR blocks with
+     * {@code fromTime <= time < toTime}.
+     */
+    public BlockCursor heartRates(int fromTime, int toTime, BlockCursor cursor) {
+        cursor.reset(hrFrames, map, fromTime, toTime);
+        return cursor;
+    }
+
+    /**
+     * Positions {@code cursor} on the events with {@code fromTime <= time < toTime}.
+     */
+    public EventCursor events(int fromTime, int toTime, EventCursor cursor) {
+        cursor.reset(this, eventFrames.find(fromTime), fromTime, toTime);
+        return cursor;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void index() {
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[4096];
+        final int end = map.limit();
+        int position = SessionFormat.FILE_HEADER_SIZE;
+
+        while (position < end) {
+            if (end - position < SessionFormat.FRAME_HEADER_SIZE) {
+                truncated = true;
+                return;
+            }
+            final int type = map.get(position) & 0xff;
+            final int count = map.getShort(position + 2) & 0xffff;
+            final int earliest = map.getInt(position + 4);
+            final int latest = map.getInt(position + 8);
+            final int length = map.getInt(position + 12);
+            final int checksum = map.getInt(position + 16);
+            final int payload = position + SessionFormat.FRAME_HEADER_SIZE;
+            if (length < 0 || length > end - payload) {
+                truncated = true;
+                return;
+            }
+
+            crc.reset();
+            for (int offset = 0; offset < length; offset += chunk.length) {
+                final int n = Math.min(chunk.length, length - offset);
+                for (int i = 0; i < n; i++) {
+                    chunk[i] = map.get(payload + offset + i);
+                }
+                crc.update(chunk, 0, n);
+            }
+            if ((int) crc.getValue() != checksum) {
+                truncated = true;
+                return;
+            }
+
+            if (type == SessionFormat.FRAME_EVENTS && length == count * SessionFormat.EVENT_SIZE)
+                eventFrames.add(payload, length, count, earliest, latest);
+            else if (type == SessionFormat.FRAME_RR_BLOCK)
+                rrFrames.add(payload, length, count, earliest, latest);
+            else if (type == SessionFormat.FRAME_HR_BLOCK)
+                hrFrames.add(payload, length, count, earliest, latest);
+            // Unknown frame types are skipped.
+            position = payload + length;
+        }
+    }
+
+    /**
+     * Frames of one type in file order. The latest times are kept as a running maximum
+     * so that the binary search is well defined for any input.
+     */
+    private static class FrameIndex {
+        int size;
+        long records;
+        int[] positions = new int[16];
+        int[] lengths = new int[16];
+        int[] counts = new int[16];
+        int[] earliest = new int[16];
+        int[] latest = new int[16];
+
+        void add(int position, int length, int count, int first, int last) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                earliest = Arrays.copyOf(earliest, size * 2);
+                latest = Arrays.copyOf(latest, size * 2);
+            }
+            positions[size] = position;
+            lengths[size] = length;
+            counts[size] = count;
+            earliest[size] = first;
+            latest[size] = size > 0 ? Math.max(last, latest[size - 1]) : last;
+            size++;
+            records += count;
+        }
+
+        // First frame that may hold a record at or after time.
+        int find(int time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (latest[mid] < time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Iterates the records of the blocks of one type in a time range, see
+     * {@link SessionReader#heartRates} and {@link SessionReader#rr}.
+     */
+    public static class BlockCursor {
+        final RrBlockDecoder decoder = new RrBlockDecoder();
+        private FrameIndex frames;
+        private ByteBuffer map;
+        private int frame;
+        private int fromTime;
+        private int toTime;
+        private boolean done;
+
+        void reset(FrameIndex frames, ByteBuffer map, int from, int to) {
+            this.frames = frames;
+            this.map = map;
+            frame = frames.find(from);
+            fromTime = from;
+            toTime = to;
+            done = false;
+            openFrame();
+        }
+
+        /**
+         * @return false when there are no more records in the range.
+         */
+        public boolean next() {
+            while (!done) {
+                if (!decoder.next()) {
+                    frame++;
+                    openFrame();
+                    continue;
+                }
+                final int time = decoder.getTime();
+                if (time >= toTime) {
+                    done = true;
+                } else if (time >= fromTime) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int getTime() {
+            return decoder.getTime();
+        }
+
+        /**
+         * @return the heart rate or the RR interval, as recorded.
+         */
+        public int getValue() {
+            return decoder.getRr();
+        }
+
+        private void openFrame() {
+            if (frame >= frames.size || frames.earliest[frame] >= toTime) {
+                done = true;
+                return;
+            }
+            decoder.reset(map, frames.positions[frame], frames.lengths[frame],
+                    frames.counts[frame], frames.earliest[frame]);
+        }
+    }
+
+    /**
+     * Iterates RR intervals of a time range, see {@link SessionReader#rr}.
+     */
+    public static class RrCursor extends BlockCursor {
+
+        /**
+         * @return the RR interval as transmitted, in 1/1024 s.
+         */
+        public int getRr() {
+            return decoder.getRr();
+        }
+
+        public int getRrMillis() {
+            return (int) Math.round(decoder.getRr() * 1000.0 / 1024);
+        }
+    }
+
+    /**
+     * Iterates the events of a time range, see {@link SessionReader#events}.
+     */
+    public static class EventCursor {
+        private FrameIndex frames;
+        private ByteBuffer map;
+        private int frame;
+        private int position;
+        private int end;
+        private int fromTime;
+        private int toTime;
+        private boolean done;
+
+        void reset(SessionReader reader, int firstFrame, int from, int to) {
+            frames = reader.eventFrames;
+            map = reader.map;
+            frame = firstFrame;
+            fromTime = from;
+            toTime = to;
+            done = false;
+            openFrame();
+        }
+
+        /**
+         * @return false when there are no more events in the range.
+         */
+        public boolean next() {
+            while (!done) {
+                position += SessionFormat.EVENT_SIZE;
+                if (position >= end) {
+                    frame++;
+                    openFrame();
+                    continue;
+                }
+                final int time = getTime();
+                if (time >= toTime) {
+                    done = true;
+                } else if (time >= fromTime) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return one of the {@code SessionFormat.KIND_} constants.
+         */
+        public int getKind() {
+            return map.get(position) & 0xff;
+        }
+
+        public int getTime() {
+            return map.getInt(position + 1);
+        }
+
+        public int getValue() {
+            return map.getInt(position + 5);
+        }
+
+        // Positions before the first record of the current frame.
+        private void openFrame() {
+            if (frame >= frames.size || frames.earliest[frame] >= toTime) {
+                done = true;
+                return;
+            }
+            position = frames.positions[frame] - SessionFormat.EVENT_SIZE;
+            end = frames.positions[frame] + frames.lengths[frame];
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.sample.hrv.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import com.sample.hrv.sensor.HeartRateMeasurement;
+
+/**
+ * Writer of a binary session file, see {@link SessionFormat}.
+ *
+ * Records are collected in a preallocated primitive batch and written by a background
+ * thread once per commit interval, or earlier when the batch fills up, so at most the
+ * last commit interval is lost if the app dies. Events go to an event frame with every
+ * commit. RR intervals and heart rates go to blocks that stay open across commits, as a
+ * block only pays off its headers with many beats in it: every commit rewrites the open
+ * blocks in place at the end of the file, after the frames that are final, and a block
+ * becomes final when it is full or on {@link #close()}. Memory use does not depend on
+ * the session length. Records that arrive while both batches are full are dropped and
+ * counted.
+ *
+ * Record times are given in the caller's monotonic clock, the same clock as the
+ * {@code startClockMillis} the writer was created with.
+ */
+public class SessionWriter {
+
+    private final long startClockMillis;
+    private final long commitIntervalMillis;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private final Object lock = new Object();
+    private Batch active;
+    private Batch spare;
+    private int lastContact = Integer.MIN_VALUE;
+    private long dropped;
+    private boolean closed;
+
+    private final ByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private final RrBlockEncoder rrBlock = new RrBlockEncoder(SessionFormat.RR_BLOCK_RECORDS);
+    private final RrBlockEncoder hrBlock = new RrBlockEncoder(SessionFormat.RR_BLOCK_RECORDS);
+    // End of the final frames, where the open blocks start, and end of the file.
+    private long tail;
+    private long end;
+    private final Thread thread;
+    private IOException error;
+
+    /**
+     * @param startWallMillis session start, in ms since the epoch, stored in the file header.
+     * @param startClockMillis session start in the clock used for the record times.
+     * @param capacity maximum number of records per commit.
+     */
+    public SessionWriter(File file, long startWallMillis, long startClockMillis,
+                         long commitIntervalMillis, int capacity) throws IOException {
+        if (capacity < 1 || capacity > SessionFormat.MAX_FRAME_RECORDS)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        this.startClockMillis = startClockMillis;
+        this.commitIntervalMillis = commitIntervalMillis;
+
+        active = new Batch(capacity);
+        spare = new Batch(capacity);
+        // One event frame and the RR and HR blocks, with every record of the batch and
+        // of the blocks left open by earlier commits in the larger encoding.
+        final int frames = 1 + 2 * (2 + capacity / SessionFormat.RR_BLOCK_RECORDS);
+        buffer = ByteBuffer.allocate(frames * (SessionFormat.FRAME_HEADER_SIZE + SessionFormat.RR_BLOCK_HEADER_SIZE)
+                + (capacity + 2 * SessionFormat.RR_BLOCK_RECORDS)
+                * Math.max(SessionFormat.EVENT_SIZE, SessionFormat.RR_MAX_RECORD_SIZE));
+
+        this.file = new RandomAccessFile(file, "rw");
+        channel = this.file.getChannel();
+        tail = channel.size();
+        if (tail == 0) {
+            final ByteBuffer header = ByteBuffer.allocate(SessionFormat.FILE_HEADER_SIZE);
+            header.putInt(SessionFormat.MAGIC);
+            header.putShort((short) SessionFormat.VERSION);
+            header.putShort((short) 0);
+            header.putLong(startWallMillis);
+            header.flip();
+            writeFully(header, 0);
+            tail = SessionFormat.FILE_HEADER_SIZE;
+        }
+        end = tail;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "SessionWriter");
+        thread.start();
+    }
+
+    /**
+     * Records a decoded heart rate measurement: heart rate, every RR interval and the
+     * contact state when it changed.
+     */
+    public void measurement(long clockMillis, HeartRateMeasurement measurement) {
+        final int time = time(clockMillis);
+        synchronized (lock) {
+            appendLocked(SessionFormat.KIND_HEART_RATE, time, measurement.getHeartRate());
+            final int contact = measurement.getContact();
+            if (contact != lastContact) {
+                lastContact = contact;
+                appendLocked(SessionFormat.KIND_CONTACT, time, contact);
+            }
+            for (int i = 0; i < measurement.getRrCount(); i++) {
+                appendLocked(SessionFormat.KIND_RR, time, measurement.getRrInterval(i));
+            }
+        }
+    }
+
+    public void track(long clockMillis, int track) {
+        append(SessionFormat.KIND_TRACK, clockMillis, track);
+    }
+
+    public void rating(long clockMillis, int rating) {
+        append(SessionFormat.KIND_RATING, clockMillis, rating);
+    }
+
+    public void append(int kind, long clockMillis, int value) {
+        final int time = time(clockMillis);
+        synchronized (lock) {
+            appendLocked(kind, time, value);
+        }
+    }
+
+    public long getDroppedRecords() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Commits the pending records, writes the open blocks and closes the file.
+     *
+     * @throws IOException the first error the background thread ran into, if any.
+     */
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed)
+                return;
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        file.close();
+        if (error != null)
+            throw error;
+    }
+
+    private int time(long clockMillis) {
+        return (int) (clockMillis - startClockMillis);
+    }
+
+    private void appendLocked(int kind, int time, int value) {
+        if (closed)
+            return;
+        final Batch batch = active;
+        if (batch.count == batch.kinds.length) {
+            dropped++;
+            return;
+        }
+        batch.kinds[batch.count] = (byte) kind;
+        batch.times[batch.count] = time;
+        batch.values[batch.count] = value;
+        batch.count++;
+        // Wake the writer early rather than dropping records.
+        if (batch.count == batch.kinds.length - batch.kinds.length / 4)
+            lock.notifyAll();
+    }
+
+    private void loop() {
+        boolean last = false;
+        while (!last) {
+            final Batch batch;
+            synchronized (lock) {
+                final long deadline = System.currentTimeMillis() + commitIntervalMillis;
+                long wait = commitIntervalMillis;
+                while (!closed && wait > 0 && active.count < active.kinds.length - active.kinds.length / 4) {
+                    try {
+                        lock.wait(wait);
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                    wait = deadline - System.currentTimeMillis();
+                }
+                last = closed;
+                batch = active;
+                active = spare;
+                spare = batch;
+            }
+
+            if ((batch.count > 0 || last) && error == null) {
+                try {
+                    commit(batch, last);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            batch.count = 0;
+        }
+    }
+
+    // Writes the events of a batch in one frame and adds its RR intervals and heart rates
+    // to the blocks. The blocks that are full, or all of them on the last commit, are
+    // final; the others are written after them, to be rewritten by the next commit.
+    // A single write.
+    private void commit(Batch batch, boolean closing) throws IOException {
+        buffer.clear();
+
+        int start = buffer.position();
+        buffer.position(start + SessionFormat.FRAME_HEADER_SIZE);
+        int events = 0;
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int i = 0; i < batch.count; i++) {
+            if (isBlockRecord(batch.kinds[i]))
+                continue;
+            first = Math.min(first, batch.times[i]);
+            last = Math.max(last, batch.times[i]);
+            buffer.put(batch.kinds[i]);
+            buffer.putInt(batch.times[i]);
+            buffer.putInt(batch.values[i]);
+            events++;
+        }
+        if (events > 0)
+            endFrame(SessionFormat.FRAME_EVENTS, start, events, first, last);
+        else
+            buffer.position(start);
+
+        for (int i = 0; i < batch.count; i++) {
+            if (batch.kinds[i] == SessionFormat.KIND_RR) {
+                if (rrBlock.add(batch.times[i], batch.values[i]))
+                    writeBlock(SessionFormat.FRAME_RR_BLOCK, rrBlock, true);
+            } else if (batch.kinds[i] == SessionFormat.KIND_HEART_RATE) {
+                if (hrBlock.add(batch.times[i], batch.values[i]))
+                    writeBlock(SessionFormat.FRAME_HR_BLOCK, hrBlock, true);
+            }
+        }
+        final int finalLength = buffer.position();
+        if (rrBlock.size() > 0)
+            writeBlock(SessionFormat.FRAME_RR_BLOCK, rrBlock, closing);
+        if (hrBlock.size() > 0)
+            writeBlock(SessionFormat.FRAME_HR_BLOCK, hrBlock, closing);
+
+        final int length = buffer.position();
+        buffer.flip();
+        writeFully(buffer, tail);
+        // A block can encode shorter than before, drop what is left of the old one.
+        if (tail + length < end)
+            channel.truncate(tail + length);
+        end = tail + length;
+        tail += closing ? length : finalLength;
+    }
+
+    private static boolean isBlockRecord(int kind) {
+        return kind == SessionFormat.KIND_RR || kind == SessionFormat.KIND_HEART_RATE;
+    }
+
+    // Writes the block as a frame, clearing it if it is final.
+    private void writeBlock(int type, RrBlockEncoder block, boolean complete) {
+        final int start = buffer.position();
+        final int count = block.size();
+        final int first = block.getEarliestTime();
+        final int last = block.getLatestTime();
+        buffer.position(start + SessionFormat.FRAME_HEADER_SIZE);
+        if (complete)
+            block.encode(buffer);
+        else
+            block.encodePending(buffer);
+        endFrame(type, start, count, first, last);
+    }
+
+    // Fills in the header of the frame starting at start, its payload ends at the position.
+    private void endFrame(int type, int start, int count, int first, int last) {
+        final int payload = start + SessionFormat.FRAME_HEADER_SIZE;
+        final int length = buffer.position() - payload;
+        crc.reset();
+        crc.update(buffer.array(), payload, length);
+
+        buffer.put(start, (byte) type);
+        buffer.put(start + 1, (byte) 0);
+        buffer.putShort(start + 2, (short) count);
+        buffer.putInt(start + 4, first);
+        buffer.putInt(start + 8, last);
+        buffer.putInt(start + 12, length);
+        buffer.putInt(start + 16, (int) crc.getValue());
+    }
+
+    private void writeFully(ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    private static class Batch {
+        final byte[] kinds;
+        final int[] times;
+        final int[] values;
+        int count;
+
+        Batch(int capacity) {
+            kinds = new byte[capacity];
+            times = new int[capacity];
+            values = new int[capacity];
+        }
+    }
+}
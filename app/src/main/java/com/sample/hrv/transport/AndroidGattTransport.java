@@ -0,0 +1,203 @@
+package com.sample.hrv.transport;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link GattTransport} of a {@link BluetoothGatt} client. It owns the client: a
+ * {@link #connect} closes the previous one, so the transport can outlive several
+ * connections to the same device.
+ *
+ * After a service discovery the characteristics and their configuration descriptors
+ * are resolved once into a table keyed by UUID, so an operation does not search the
+ * services again and a notification is dispatched with the UUIDs of its attribute.
+ */
+public class AndroidGattTransport extends BluetoothGattCallback implements GattTransport {
+    private final static String TAG = AndroidGattTransport.class.getSimpleName();
+
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG =
+            UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private final Callback callback;
+    private volatile BluetoothGatt gatt;
+    // Attributes of the discovered services by service and characteristic UUID.
+    private volatile Map<UUID, Map<UUID, Handle>> handles = Collections.emptyMap();
+
+    private static class Handle {
+        final BluetoothGattCharacteristic characteristic;
+        // Client characteristic configuration, null if the characteristic has none.
+        final BluetoothGattDescriptor config;
+
+        Handle(BluetoothGattCharacteristic characteristic) {
+            this.characteristic = characteristic;
+            this.config = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+        }
+    }
+
+    public AndroidGattTransport(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Opens a new client, closing the previous one.
+     *
+     * @param autoConnect connect in the background when the device becomes available,
+     *                    without the timeout of a direct connection.
+     */
+    public boolean connect(Context context, BluetoothDevice device, boolean autoConnect) {
+        close();
+        handles = Collections.emptyMap();
+        gatt = device.connectGatt(context, autoConnect, this);
+        return gatt != null;
+    }
+
+    /**
+     * Connects the existing client again.
+     */
+    public boolean reconnect() {
+        final BluetoothGatt current = gatt;
+        return current != null && current.connect();
+    }
+
+    public boolean isOpen() {
+        return gatt != null;
+    }
+
+    public void disconnect() {
+        final BluetoothGatt current = gatt;
+        if (current != null)
+            current.disconnect();
+    }
+
+    public void close() {
+        final BluetoothGatt current = gatt;
+        if (current == null)
+            return;
+        gatt = null;
+        handles = Collections.emptyMap();
+        current.close();
+    }
+
+    public boolean discoverServices() {
+        final BluetoothGatt current = gatt;
+        return current != null && current.discoverServices();
+    }
+
+    public List<BluetoothGattService> getServices() {
+        final BluetoothGatt current = gatt;
+        return current == null ? null : current.getServices();
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID serviceUuid, UUID characteristicUuid) {
+        final BluetoothGatt current = gatt;
+        final Handle handle = getHandle(serviceUuid, characteristicUuid);
+        return current != null && handle != null && current.readCharacteristic(handle.characteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID serviceUuid, UUID characteristicUuid, byte[] value) {
+        final BluetoothGatt current = gatt;
+        final Handle handle = getHandle(serviceUuid, characteristicUuid);
+        if (current == null || handle == null)
+            return false;
+        handle.characteristic.setValue(value);
+        return current.writeCharacteristic(handle.characteristic);
+    }
+
+    @Override
+    public boolean setNotification(UUID serviceUuid, UUID characteristicUuid, boolean enable) {
+        final BluetoothGatt current = gatt;
+        final Handle handle = getHandle(serviceUuid, characteristicUuid);
+        if (current == null || handle == null || handle.config == null)
+            return false;
+
+        // enable/disable locally
+        current.setCharacteristicNotification(handle.characteristic, enable);
+        // enable/disable remotely
+        handle.config.setValue(enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        return current.writeDescriptor(handle.config);
+    }
+
+    private Handle getHandle(UUID serviceUuid, UUID characteristicUuid) {
+        final Map<UUID, Handle> service = handles.get(serviceUuid);
+        if (service == null) {
+            Log.i(TAG, "Service not found with uuid: " + serviceUuid);
+            return null;
+        }
+        final Handle handle = service.get(characteristicUuid);
+        if (handle == null)
+            Log.i(TAG, "Characteristic not found with uuid: " + characteristicUuid);
+        return handle;
+    }
+
+    // Like BluetoothGatt.getService(UUID), the first instance of a service wins.
+    private static Map<UUID, Map<UUID, Handle>> resolve(List<BluetoothGattService> services) {
+        final Map<UUID, Map<UUID, Handle>> resolved = new HashMap<>();
+        for (BluetoothGattService service : services) {
+            if (resolved.containsKey(service.getUuid()))
+                continue;
+            final Map<UUID, Handle> characteristics = new HashMap<>();
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                if (!characteristics.containsKey(characteristic.getUuid()))
+                    characteristics.put(characteristic.getUuid(), new Handle(characteristic));
+            }
+            resolved.put(service.getUuid(), characteristics);
+        }
+        return resolved;
+    }
+
+    @Override
+    public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+        callback.onConnectionStateChange(this, status, newState == BluetoothProfile.STATE_CONNECTED);
+    }
+
+    @Override
+    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS)
+            handles = resolve(gatt.getServices());
+        callback.onServicesDiscovered(this, status);
+    }
+
+    @Override
+    public void onCharacteristicRead(BluetoothGatt gatt,
+                                     BluetoothGattCharacteristic characteristic,
+                                     int status) {
+        callback.onCharacteristicRead(this, characteristic.getService().getUuid(),
+                characteristic.getUuid(), characteristic.getValue(), status);
+    }
+
+    @Override
+    public void onCharacteristicWrite(BluetoothGatt gatt,
+                                      BluetoothGattCharacteristic characteristic,
+                                      int status) {
+        callback.onCharacteristicWrite(this, characteristic.getUuid(), status);
+    }
+
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt,
+                                  BluetoothGattDescriptor descriptor,
+                                  int status) {
+        callback.onDescriptorWrite(this, descriptor.getCharacteristic().getUuid(), status);
+    }
+
+    @Override
+    public void onCharacteristicChanged(BluetoothGatt gatt,
+                                        BluetoothGattCharacteristic characteristic) {
+        callback.onCharacteristicChanged(this, characteristic.getService().getUuid(),
+                characteristic.getUuid(), characteristic.getValue());
+    }
+}
@@ -0,0 +1,256 @@
+package com.sample.hrv.transport;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.sample.hrv.sensor.HeartRateMeasurement;
+
+/**
+ * In-memory heart rate sensor implementing the Heart Rate service (0x180D), for running
+ * the notification pipeline on a plain JVM.
+ *
+ * Beats are drawn from a seeded generator around a mean RR interval, so a run is
+ * repeatable. Each {@link #emit()} sends one Heart Rate Measurement notification; the
+ * payload shape (heart rate width, contact and energy fields, RR intervals per
+ * notification) is configurable. {@link #start} emits at a fixed rate instead.
+ *
+ * All callbacks go through the executor given to the constructor. Android delivers them
+ * on a binder thread, a single thread executor models that; a direct executor delivers
+ * them on the calling thread, which makes a run deterministic.
+ */
+public class FakeHeartRatePeripheral implements GattTransport {
+
+    public static final UUID SERVICE_UUID = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    public static final UUID MEASUREMENT_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    public static final UUID BODY_LOCATION_UUID = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
+    public static final UUID CONTROL_POINT_UUID = UUID.fromString("00002a39-0000-1000-8000-00805f9b34fb");
+
+    private static final int BODY_LOCATION_CHEST = 1;
+
+    private final Callback callback;
+    private final Executor callbacks;
+    private final Random random;
+
+    private volatile boolean connected;
+    private volatile boolean notifying;
+
+    // Payload shape.
+    private volatile boolean heartRateUint16;
+    private volatile boolean contactSupported = true;
+    private volatile boolean energyExpended;
+    private volatile int rrPerNotification = 1;
+
+    // Beat model, in milliseconds.
+    private volatile int meanRrMillis = 800;
+    private volatile int rrVariationMillis = 50;
+
+    // Emitter state, only used by the emitting thread.
+    private final int[] rr = new int[HeartRateMeasurement.MAX_RR_INTERVALS];
+    private int energy;
+    private long notifications;
+    private ScheduledFuture<?> emitter;
+
+    private final Runnable emitTask = new Runnable() {
+        @Override
+        public void run() {
+            emit();
+        }
+    };
+
+    /**
+     * @param seed of the beat generator.
+     */
+    public FakeHeartRatePeripheral(Callback callback, Executor callbacks, long seed) {
+        this.callback = callback;
+        this.callbacks = callbacks;
+        this.random = new Random(seed);
+    }
+
+    public void setHeartRateUint16(boolean uint16) {
+        heartRateUint16 = uint16;
+    }
+
+    public void setContactSupported(boolean supported) {
+        contactSupported = supported;
+    }
+
+    public void setEnergyExpended(boolean present) {
+        energyExpended = present;
+    }
+
+    /**
+     * @param count RR intervals sent with every notification, 0 for none.
+     */
+    public void setRrPerNotification(int count) {
+        if (count < 0 || count > HeartRateMeasurement.MAX_RR_INTERVALS)
+            throw new IllegalArgumentException("RR intervals per notification: " + count);
+        rrPerNotification = count;
+    }
+
+    /**
+     * @param variationMillis RR intervals are uniformly distributed within this distance
+     *                        of the mean.
+     */
+    public void setRr(int meanMillis, int variationMillis) {
+        meanRrMillis = meanMillis;
+        rrVariationMillis = variationMillis;
+    }
+
+    public boolean isNotifying() {
+        return notifying;
+    }
+
+    public long getNotificationCount() {
+        return notifications;
+    }
+
+    /**
+     * Simulates a successful connection followed by service discovery.
+     */
+    public void connect() {
+        connected = true;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onConnectionStateChange(FakeHeartRatePeripheral.this, STATUS_SUCCESS, true);
+                callback.onServicesDiscovered(FakeHeartRatePeripheral.this, STATUS_SUCCESS);
+            }
+        });
+    }
+
+    /**
+     * Simulates a lost link. Notifications have to be enabled again after a connect.
+     */
+    public void disconnect() {
+        connected = false;
+        notifying = false;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onConnectionStateChange(FakeHeartRatePeripheral.this, STATUS_SUCCESS, false);
+            }
+        });
+    }
+
+    /**
+     * Emits notifications at a fixed rate until {@link #stop()}.
+     */
+    public synchronized void start(ScheduledExecutorService scheduler, double notificationsPerSecond) {
+        stop();
+        final long periodNanos = (long) (1e9 / notificationsPerSecond);
+        emitter = scheduler.scheduleAtFixedRate(emitTask, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stop() {
+        if (emitter != null) {
+            emitter.cancel(false);
+            emitter = null;
+        }
+    }
+
+    /**
+     * Sends the next measurement if notifications are enabled.
+     *
+     * @return false if nothing was sent.
+     */
+    public boolean emit() {
+        if (!connected || !notifying)
+            return false;
+
+        final int count = rrPerNotification;
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            final int millis = meanRrMillis + (rrVariationMillis > 0
+                    ? random.nextInt(2 * rrVariationMillis + 1) - rrVariationMillis : 0);
+            rr[i] = (millis * 1024 + 500) / 1000;
+            sum += millis;
+        }
+        final int mean = count > 0 ? sum / count : meanRrMillis;
+        final int heartRate = (60000 + mean / 2) / mean;
+
+        int flags = 0;
+        int length = 2 + 2 * count;
+        if (heartRateUint16 || heartRate > 0xff) {
+            flags |= HeartRateMeasurement.FLAG_HEART_RATE_UINT16;
+            length++;
+        }
+        if (contactSupported)
+            flags |= HeartRateMeasurement.FLAG_CONTACT_SUPPORTED | HeartRateMeasurement.FLAG_CONTACT_DETECTED;
+        if (energyExpended) {
+            flags |= HeartRateMeasurement.FLAG_ENERGY_EXPENDED;
+            energy = Math.min(0xffff, energy + 1);
+            length += 2;
+        }
+
+        // A new array for every notification, as the Android stack does.
+        final byte[] value = new byte[length];
+        HeartRateMeasurement.encode(flags, heartRate, energy, rr, 0, count, value);
+        notifications++;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicChanged(FakeHeartRatePeripheral.this, SERVICE_UUID,
+                        MEASUREMENT_UUID, value);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID serviceUuid, final UUID characteristicUuid) {
+        if (!connected || !SERVICE_UUID.equals(serviceUuid))
+            return false;
+        final boolean readable = BODY_LOCATION_UUID.equals(characteristicUuid);
+        if (!readable && !MEASUREMENT_UUID.equals(characteristicUuid))
+            return false;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (readable)
+                    callback.onCharacteristicRead(FakeHeartRatePeripheral.this, SERVICE_UUID,
+                            characteristicUuid, new byte[] { BODY_LOCATION_CHEST }, STATUS_SUCCESS);
+                else
+                    callback.onCharacteristicRead(FakeHeartRatePeripheral.this, SERVICE_UUID,
+                            characteristicUuid, null, STATUS_READ_NOT_PERMITTED);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID serviceUuid, final UUID characteristicUuid, byte[] value) {
+        if (!connected || !SERVICE_UUID.equals(serviceUuid))
+            return false;
+        if (CONTROL_POINT_UUID.equals(characteristicUuid) && value != null && value.length == 1 && value[0] == 1)
+            energy = 0;
+        else if (!CONTROL_POINT_UUID.equals(characteristicUuid) && !MEASUREMENT_UUID.equals(characteristicUuid))
+            return false;
+        final int status = CONTROL_POINT_UUID.equals(characteristicUuid)
+                ? STATUS_SUCCESS : STATUS_WRITE_NOT_PERMITTED;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicWrite(FakeHeartRatePeripheral.this, characteristicUuid, status);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean setNotification(UUID serviceUuid, final UUID characteristicUuid, boolean enable) {
+        if (!connected || !SERVICE_UUID.equals(serviceUuid) || !MEASUREMENT_UUID.equals(characteristicUuid))
+            return false;
+        notifying = enable;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onDescriptorWrite(FakeHeartRatePeripheral.this, characteristicUuid, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+}
@@ -0,0 +1,65 @@
+package com.sample.hrv.transport;
+
+import java.util.UUID;
+
+/**
+ * GATT client operations of one connection, as used by the operation queue and the
+ * sensors. Attributes are addressed by the UUIDs of their service and characteristic,
+ * values are raw bytes. The UUIDs passed to the callbacks are the instances the
+ * transport resolved, so dispatching a notification needs no string handling.
+ *
+ * Like the Android stack, a transport runs one operation at a time and reports its
+ * result asynchronously to its {@link Callback}. The callbacks of one transport are
+ * called one at a time, in order.
+ *
+ * {@link AndroidGattTransport} talks to a real device, {@link FakeHeartRatePeripheral}
+ * simulates a heart rate sensor in memory.
+ */
+public interface GattTransport {
+
+    int STATUS_SUCCESS = 0;
+    int STATUS_READ_NOT_PERMITTED = 0x02;
+    int STATUS_WRITE_NOT_PERMITTED = 0x03;
+    int STATUS_FAILURE = 0x101;
+
+    /**
+     * @return true if the read was started and its result follows in
+     *         {@link Callback#onCharacteristicRead}.
+     */
+    boolean readCharacteristic(UUID serviceUuid, UUID characteristicUuid);
+
+    /**
+     * @return true if the write was started and its result follows in
+     *         {@link Callback#onCharacteristicWrite}.
+     */
+    boolean writeCharacteristic(UUID serviceUuid, UUID characteristicUuid, byte[] value);
+
+    /**
+     * Enables or disables notifications of a characteristic, locally and by writing its
+     * client characteristic configuration descriptor.
+     *
+     * @return true if the descriptor write was started and its result follows in
+     *         {@link Callback#onDescriptorWrite}.
+     */
+    boolean setNotification(UUID serviceUuid, UUID characteristicUuid, boolean enable);
+
+    interface Callback {
+
+        void onConnectionStateChange(GattTransport transport, int status, boolean connected);
+
+        void onServicesDiscovered(GattTransport transport, int status);
+
+        void onCharacteristicRead(GattTransport transport, UUID serviceUuid,
+                                  UUID characteristicUuid, byte[] value, int status);
+
+        void onCharacteristicWrite(GattTransport transport, UUID characteristicUuid, int status);
+
+        void onDescriptorWrite(GattTransport transport, UUID characteristicUuid, int status);
+
+        /**
+         * A notification. The value is not modified by the transport afterwards.
+         */
+        void onCharacteristicChanged(GattTransport transport, UUID serviceUuid,
+                                     UUID characteristicUuid, byte[] value);
+    }
+}
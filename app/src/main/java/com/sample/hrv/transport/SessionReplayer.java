@@ -0,0 +1,303 @@
+package com.sample.hrv.transport;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sample.hrv.analysis.QuantileSketch;
+import com.sample.hrv.sensor.HeartRateMeasurement;
+import com.sample.hrv.storage.SessionFormat;
+import com.sample.hrv.storage.SessionReader;
+
+/**
+ * Heart rate sensor that plays back a recorded session, so the analysis and the UI can
+ * be driven by real data through the same path as a live strap.
+ *
+ * Every recorded measurement, the heart rate and the RR intervals written at the same
+ * time, becomes a Heart Rate Measurement (0x2A37) notification with the contact state
+ * recorded last. {@link #replay(double)} sends them at the recorded pace times a speed
+ * factor, or as fast as possible, and reports the achieved rate and the latency of the
+ * notifications. A gap in the recording is replayed as a lost link: the callback sees a
+ * disconnect and a new connection with its services before the next notification, and
+ * has to enable the notifications again, as on a live reconnect. The time of the gap
+ * passes as a pause.
+ *
+ * Like {@link FakeHeartRatePeripheral}, all callbacks go through the executor given to
+ * the constructor. With a direct executor the latency includes the whole pipeline.
+ */
+public class SessionReplayer implements GattTransport {
+
+    /**
+     * Speed of a replay without pauses between the notifications.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    private final SessionReader reader;
+    private final Callback callback;
+    private final Executor callbacks;
+
+    private final SessionReader.EventCursor events = new SessionReader.EventCursor();
+    private final SessionReader.BlockCursor heartRates = new SessionReader.BlockCursor();
+    private final SessionReader.RrCursor rr = new SessionReader.RrCursor();
+    private final int[] rrIntervals = new int[HeartRateMeasurement.MAX_RR_INTERVALS];
+    private final byte[] payload = new byte[5 + 2 * HeartRateMeasurement.MAX_RR_INTERVALS];
+
+    private volatile boolean connected;
+    private volatile boolean notifying;
+    private volatile boolean stopped;
+
+    public SessionReplayer(SessionReader reader, Callback callback, Executor callbacks) {
+        this.reader = reader;
+        this.callback = callback;
+        this.callbacks = callbacks;
+    }
+
+    public boolean isNotifying() {
+        return notifying;
+    }
+
+    /**
+     * Simulates a successful connection followed by service discovery.
+     */
+    public void connect() {
+        connected = true;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onConnectionStateChange(SessionReplayer.this, STATUS_SUCCESS, true);
+                callback.onServicesDiscovered(SessionReplayer.this, STATUS_SUCCESS);
+            }
+        });
+    }
+
+    /**
+     * Ends a running replay early, from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Plays back the whole session on the calling thread. Measurements are skipped while
+     * notifications are not enabled.
+     *
+     * @param speed factor of the recorded pace, e.g. 1, 10 or 100, or
+     *              {@link #AS_FAST_AS_POSSIBLE}.
+     */
+    public Result replay(double speed) {
+        if (!(speed > 0))
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        stopped = false;
+
+        final Result result = new Result();
+        final boolean paced = !Double.isInfinite(speed);
+        final long startNanos = System.nanoTime();
+        int firstTime = -1;
+        int contact = HeartRateMeasurement.CONTACT_NOT_SUPPORTED;
+
+        reader.events(0, Integer.MAX_VALUE, events);
+        reader.heartRates(0, Integer.MAX_VALUE, heartRates);
+        reader.rr(0, Integer.MAX_VALUE, rr);
+        boolean eventPending = events.next();
+        boolean heartRatePending = heartRates.next();
+        boolean rrPending = rr.next();
+
+        while (!stopped && (eventPending || heartRatePending)) {
+            // Events of a measurement's time come first, its contact state among them.
+            final int time;
+            final int value;
+            if (eventPending && (!heartRatePending || events.getTime() <= heartRates.getTime())) {
+                final int kind = events.getKind();
+                time = events.getTime();
+                value = events.getValue();
+                eventPending = events.next();
+                if (kind == SessionFormat.KIND_CONTACT) {
+                    contact = value;
+                    continue;
+                }
+                if (kind == SessionFormat.KIND_GAP) {
+                    if (connected) {
+                        reconnect();
+                        result.reconnects++;
+                    }
+                    continue;
+                }
+                // Heart rates are events in version 1 files.
+                if (kind != SessionFormat.KIND_HEART_RATE)
+                    continue;
+            } else {
+                time = heartRates.getTime();
+                value = heartRates.getValue();
+                heartRatePending = heartRates.next();
+            }
+
+            // The RR intervals of a measurement are recorded at its time.
+            int count = 0;
+            while (rrPending && rr.getTime() <= time && count < rrIntervals.length) {
+                rrIntervals[count++] = rr.getRr();
+                rrPending = rr.next();
+            }
+
+            if (firstTime < 0)
+                firstTime = time;
+            final long dueNanos = paced
+                    ? startNanos + (long) ((time - firstTime) * 1e6 / speed) : System.nanoTime();
+            if (paced) {
+                long now;
+                while ((now = System.nanoTime()) < dueNanos && !stopped) {
+                    LockSupport.parkNanos(dueNanos - now);
+                }
+            }
+
+            if (!connected || !notifying) {
+                result.skipped++;
+                continue;
+            }
+            sendMeasurement(value, contact, count);
+            result.add(time - firstTime, count, System.nanoTime() - dueNanos);
+        }
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        return result;
+    }
+
+    // The link dropped and came back at once; notifications are off on the new link.
+    private void reconnect() {
+        notifying = false;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onConnectionStateChange(SessionReplayer.this, STATUS_SUCCESS, false);
+                callback.onConnectionStateChange(SessionReplayer.this, STATUS_SUCCESS, true);
+                callback.onServicesDiscovered(SessionReplayer.this, STATUS_SUCCESS);
+            }
+        });
+    }
+
+    private void sendMeasurement(int heartRate, int contact, int rrCount) {
+        int flags = 0;
+        if (contact != HeartRateMeasurement.CONTACT_NOT_SUPPORTED)
+            flags |= HeartRateMeasurement.FLAG_CONTACT_SUPPORTED;
+        if (contact == HeartRateMeasurement.CONTACT_DETECTED)
+            flags |= HeartRateMeasurement.FLAG_CONTACT_DETECTED;
+        final int length = HeartRateMeasurement.encode(flags, heartRate, 0, rrIntervals, 0, rrCount, payload);
+
+        // A new array for every notification, as the Android stack does.
+        final byte[] value = new byte[length];
+        System.arraycopy(payload, 0, value, 0, length);
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicChanged(SessionReplayer.this,
+                        FakeHeartRatePeripheral.SERVICE_UUID, FakeHeartRatePeripheral.MEASUREMENT_UUID, value);
+            }
+        });
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID serviceUuid, UUID characteristicUuid) {
+        return false;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID serviceUuid, UUID characteristicUuid, byte[] value) {
+        return false;
+    }
+
+    @Override
+    public boolean setNotification(UUID serviceUuid, final UUID characteristicUuid, boolean enable) {
+        if (!connected || !FakeHeartRatePeripheral.SERVICE_UUID.equals(serviceUuid)
+                || !FakeHeartRatePeripheral.MEASUREMENT_UUID.equals(characteristicUuid))
+            return false;
+        notifying = enable;
+        callbacks.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onDescriptorWrite(SessionReplayer.this, characteristicUuid, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Outcome of a replay. The latency of a notification is measured from the time it was
+     * due, or from its start when not paced, until the callback returned.
+     */
+    public static class Result {
+        private long measurements;
+        private long beats;
+        private long skipped;
+        private long reconnects;
+        private long sessionMillis;
+        private long elapsedNanos;
+        private long maxLatencyNanos;
+        // 1% accuracy from 100 ns to 10 s.
+        private final QuantileSketch latency = new QuantileSketch(0.01, 100, 1e10);
+
+        void add(int sessionTime, int rrCount, long latencyNanos) {
+            measurements++;
+            beats += rrCount;
+            sessionMillis = sessionTime;
+            latency.add(latencyNanos);
+            maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+        }
+
+        public long getMeasurements() {
+            return measurements;
+        }
+
+        public long getBeats() {
+            return beats;
+        }
+
+        /**
+         * @return measurements not sent because notifications were disabled.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return gaps of the recording replayed as a reconnect.
+         */
+        public long getReconnects() {
+            return reconnects;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getMeasurementsPerSecond() {
+            return elapsedNanos == 0 ? 0 : measurements * 1e9 / elapsedNanos;
+        }
+
+        public double getBeatsPerSecond() {
+            return elapsedNanos == 0 ? 0 : beats * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return recorded time replayed per elapsed time.
+         */
+        public double getSpeed() {
+            return elapsedNanos == 0 ? 0 : sessionMillis * 1e6 / elapsedNanos;
+        }
+
+        public double getLatencyNanos(double quantile) {
+            return latency.quantile(quantile);
+        }
+
+        public long getMaxLatencyNanos() {
+            return maxLatencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d measurements, %d beats in %.1f ms (%.0f/s, %.0f beats/s, %.1fx), latency p50 %.1f us, p99 %.1f us, max %.1f us, %d skipped, %d reconnects",
+                    measurements, beats, elapsedNanos / 1e6, getMeasurementsPerSecond(),
+                    getBeatsPerSecond(), getSpeed(), getLatencyNanos(0.5) / 1e3,
+                    getLatencyNanos(0.99) / 1e3, maxLatencyNanos / 1e3, skipped, reconnects);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.sample.hrv;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sample.hrv.event.SensorEvent;
+import com.sample.hrv.event.SensorEventBus;
+import com.sample.hrv.sensor.BleSensor;
+import com.sample.hrv.sensor.BleSensors;
+import com.sample.hrv.transport.FakeHeartRatePeripheral;
+import com.sample.hrv.transport.GattTransport;
+
+/**
+ * End-to-end cost of one heart rate notification: a {@link FakeHeartRatePeripheral}
+ * encodes it and calls back into a {@link BluetoothGattExecutor} that is set up like a
+ * connection of the service, the heart rate sensor decodes and analyzes it and publishes
+ * its events to a subscriber. Callbacks run on the emitting thread, so the time per
+ * operation is the latency of the chain.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GattPipelineBenchmark {
+
+    @Param({"0", "1", "4"})
+    public int rrPerNotification;
+
+    private final SensorEventBus bus = new SensorEventBus();
+    private final Map<UUID, BleSensor<?>> sensors = BleSensors.createSensors();
+    private ScheduledExecutorService watchdog;
+    private FakeHeartRatePeripheral peripheral;
+    private long time;
+    private long sum;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final SensorEventBus.Subscriber subscriber = new SensorEventBus.Subscriber() {
+        @Override
+        public void onEvent(SensorEvent event) {
+            sum += event.getValue();
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        watchdog = Executors.newSingleThreadScheduledExecutor();
+        final BluetoothGattExecutor executor = new BluetoothGattExecutor(watchdog) {
+            @Override
+            public void onCharacteristicChanged(GattTransport transport, UUID serviceUuid,
+                                                UUID characteristicUuid, byte[] value) {
+                final BleSensor<?> sensor = sensors.get(serviceUuid);
+                sensor.onCharacteristicChanged(value);
+                sensor.publish(bus, ++time);
+            }
+        };
+        peripheral = new FakeHeartRatePeripheral(executor, DIRECT, 1);
+        peripheral.setRrPerNotification(rrPerNotification);
+        bus.subscribe(subscriber, SensorEventBus.DIRECT, 64);
+
+        peripheral.connect();
+        executor.enable(sensors.get(FakeHeartRatePeripheral.SERVICE_UUID), true);
+        executor.execute(peripheral);
+        if (!peripheral.isNotifying())
+            throw new IllegalStateException("Notifications not enabled");
+    }
+
+    @TearDown
+    public void tearDown() {
+        watchdog.shutdownNow();
+    }
+
+    @Benchmark
+    public long notification() {
+        peripheral.emit();
+        return sum;
+    }
+}
@@ -0,0 +1,154 @@
+package com.sample.hrv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sample.hrv.event.SensorEvent;
+import com.sample.hrv.event.SensorEventBus;
+import com.sample.hrv.sensor.BleSensor;
+import com.sample.hrv.sensor.BleSensors;
+import com.sample.hrv.sensor.HeartRateMeasurement;
+import com.sample.hrv.storage.SessionFormat;
+import com.sample.hrv.storage.SessionReader;
+import com.sample.hrv.storage.SessionWriter;
+import com.sample.hrv.transport.FakeHeartRatePeripheral;
+import com.sample.hrv.transport.GattTransport;
+import com.sample.hrv.transport.SessionReplayer;
+
+/**
+ * Time to replay a recorded hour through the notification pipeline as fast as possible:
+ * the {@link SessionReplayer} synthesizes the notifications, and the heart rate sensor of
+ * a connection decodes, analyzes and publishes them to a subscriber. The recording has a
+ * gap, replayed as a reconnect that the executor handles like a connection does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionReplayBenchmark {
+
+    private static final long SESSION_MILLIS = 3600 * 1000;
+    private static final long GAP_MILLIS = 20 * 1000;
+
+    private final SensorEventBus bus = new SensorEventBus();
+    private final Map<UUID, BleSensor<?>> sensors = BleSensors.createSensors();
+    private ScheduledExecutorService watchdog;
+    private File file;
+    private SessionReader reader;
+    private SessionReplayer replayer;
+    private long sum;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final SensorEventBus.Subscriber subscriber = new SensorEventBus.Subscriber() {
+        @Override
+        public void onEvent(SensorEvent event) {
+            sum += event.getValue();
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("session", ".hrv");
+        file.delete();
+        final SessionWriter writer = new SessionWriter(file, System.currentTimeMillis(), 0, 1000,
+                SessionFormat.MAX_FRAME_RECORDS);
+        final HeartRateMeasurement measurement = new HeartRateMeasurement();
+        final byte[] payload = {0x16, 72, 0, 0};
+        final Random random = new Random(42);
+        long clock = 0;
+        boolean gap = false;
+        while (clock < SESSION_MILLIS) {
+            final int rr = 840 + (int) (random.nextGaussian() * 40);
+            payload[2] = (byte) rr;
+            payload[3] = (byte) (rr >> 8);
+            measurement.decode(payload);
+            clock += rr * 1000 / 1024;
+            if (!gap && clock > SESSION_MILLIS / 2) {
+                gap = true;
+                clock += GAP_MILLIS;
+                writer.append(SessionFormat.KIND_GAP, clock, (int) GAP_MILLIS);
+            }
+            writer.measurement(clock, measurement);
+        }
+        writer.close();
+        // An hour of records fits in one batch, none may be dropped.
+        if (writer.getDroppedRecords() != 0)
+            throw new IllegalStateException(writer.getDroppedRecords() + " records dropped");
+        reader = new SessionReader(file);
+
+        watchdog = Executors.newSingleThreadScheduledExecutor();
+        final BleSensor<?> heartRate = sensors.get(FakeHeartRatePeripheral.SERVICE_UUID);
+        final BluetoothGattExecutor executor = new BluetoothGattExecutor(watchdog) {
+            // As BleConnection: the series continues across a reconnect, and the sensor
+            // is enabled again once the services are known.
+            @Override
+            public void onConnectionStateChange(GattTransport transport, int status, boolean connected) {
+                super.onConnectionStateChange(transport, status, connected);
+                if (!connected)
+                    heartRate.interrupt();
+            }
+
+            @Override
+            public void onServicesDiscovered(GattTransport transport, int status) {
+                enable(heartRate, true);
+                execute(transport);
+            }
+
+            @Override
+            public void onCharacteristicChanged(GattTransport transport, UUID serviceUuid,
+                                                UUID characteristicUuid, byte[] value) {
+                final BleSensor<?> sensor = sensors.get(serviceUuid);
+                sensor.onCharacteristicChanged(value);
+                sensor.publish(bus, System.currentTimeMillis());
+            }
+        };
+        replayer = new SessionReplayer(reader, executor, DIRECT);
+        bus.subscribe(subscriber, SensorEventBus.DIRECT, 64);
+
+        replayer.connect();
+        if (!replayer.isNotifying())
+            throw new IllegalStateException("Notifications not enabled");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        watchdog.shutdownNow();
+        reader.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public long replayHour() {
+        final SessionReplayer.Result result = replayer.replay(SessionReplayer.AS_FAST_AS_POSSIBLE);
+        if (result.getSkipped() != 0)
+            throw new IllegalStateException(result.getSkipped() + " measurements skipped");
+        return result.getMeasurements() + sum;
+    }
+}
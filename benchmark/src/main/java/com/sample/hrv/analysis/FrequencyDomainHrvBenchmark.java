@@ -0,0 +1,69 @@
+package com.sample.hrv.analysis;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link FrequencyDomainHrv}: {@code addBeat} is the amortized per-beat cost,
+ * {@code spectrum} the cost of one full update, which must stay far below the hop interval.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrequencyDomainHrvBenchmark {
+
+    @Param({"256", "512"})
+    public int windowSamples;
+
+    private FrequencyDomainHrv hrv;
+    private FrequencyDomainHrv everySample;
+    private final int[] intervals = new int[1024];
+    private int position;
+    private double time;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = beat();
+        }
+        hrv = new FrequencyDomainHrv(4.0, windowSamples, 16);
+        // A hop of one sample recomputes the spectrum on every sample of the tachogram.
+        everySample = new FrequencyDomainHrv(4.0, windowSamples, 1);
+        for (int i = 0; i < windowSamples; i++) {
+            hrv.add(intervals[i & (intervals.length - 1)]);
+            everySample.add(intervals[i & (intervals.length - 1)]);
+        }
+    }
+
+    private int beat() {
+        final double rr = 850 + 40 * Math.sin(2 * Math.PI * 0.1 * time / 1000)
+                + 25 * Math.sin(2 * Math.PI * 0.25 * time / 1000);
+        time += rr;
+        return (int) rr;
+    }
+
+    @Benchmark
+    public boolean addBeat() {
+        return hrv.add(intervals[position++ & (intervals.length - 1)]);
+    }
+
+    @Benchmark
+    public long spectrum() {
+        everySample.add(intervals[position++ & (intervals.length - 1)]);
+        return everySample.getLastUpdateNanos();
+    }
+}
@@ -0,0 +1,71 @@
+package com.sample.hrv.analysis;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-beat cost of the sliding order statistics and the session quantile sketch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderStatisticsBenchmark {
+
+    @Param({"11", "301"})
+    public int windowSize;
+
+    private final int[] intervals = new int[4096];
+    private int position;
+
+    private SlidingOrderStatistics statistics;
+    private QuantileSketch sketch;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = 800 + (int) (random.nextGaussian() * 60);
+        }
+        statistics = new SlidingOrderStatistics(windowSize, 4095);
+        sketch = new QuantileSketch(0.005, 200, 4000);
+        for (int i = 0; i < windowSize; i++) {
+            statistics.add(next());
+        }
+    }
+
+    private int next() {
+        return intervals[position++ & (intervals.length - 1)];
+    }
+
+    @Benchmark
+    public int addAndMedian() {
+        statistics.add(next());
+        return statistics.median();
+    }
+
+    @Benchmark
+    public int addAndMad() {
+        statistics.add(next());
+        return statistics.mad();
+    }
+
+    @Benchmark
+    public void sketchAdd() {
+        sketch.add(next());
+    }
+}
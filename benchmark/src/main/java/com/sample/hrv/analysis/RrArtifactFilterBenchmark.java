@@ -0,0 +1,92 @@
+package com.sample.hrv.analysis;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-beat cost of {@link RrArtifactFilter} on a series with ectopic beats and sustained
+ * steps of the heart rate. The setup checks that the filter follows a step instead of
+ * replacing the beats after it for good.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RrArtifactFilterBenchmark {
+
+    private static final int MEDIAN_WINDOW = 11;
+    private static final double THRESHOLD = 0.2;
+
+    private final int[] intervals = new int[4096];
+    private int position;
+    private long sum;
+
+    private final RrArtifactFilter.Listener listener = new RrArtifactFilter.Listener() {
+        @Override
+        public void onBeat(int rrMillis, int flags) {
+            sum += rrMillis;
+        }
+    };
+
+    private RrArtifactFilter filter;
+
+    @Setup
+    public void setUp() {
+        // 60 to 86 bpm, back down, and a halving that looks like missed beats.
+        checkStep(1000, 700);
+        checkStep(700, 1000);
+        checkStep(600, 1200);
+
+        // A step every 512 beats and an ectopic beat every 50.
+        final Random random = new Random(42);
+        for (int i = 0; i < intervals.length; i++) {
+            final int level = (i / 512) % 2 == 0 ? 1000 : 700;
+            intervals[i] = i % 50 == 49 ? level / 2 : level + (int) (random.nextGaussian() * 20);
+        }
+        filter = new RrArtifactFilter(MEDIAN_WINDOW, THRESHOLD, listener);
+    }
+
+    private static void checkStep(int from, int to) {
+        final int[] last = new int[2];
+        final RrArtifactFilter filter = new RrArtifactFilter(MEDIAN_WINDOW, THRESHOLD,
+                new RrArtifactFilter.Listener() {
+                    @Override
+                    public void onBeat(int rrMillis, int flags) {
+                        last[0] = rrMillis;
+                        last[1] = flags;
+                    }
+                });
+        for (int i = 0; i < 20; i++) {
+            filter.add(from);
+        }
+        // Intervals after the step, judged with one beat of delay.
+        int normal = 0;
+        for (int i = 0; i < 60; i++) {
+            filter.add(to);
+            if (i > 0 && last[0] == to && last[1] == RrArtifactFilter.FLAG_NORMAL)
+                normal++;
+        }
+        if (normal < 59 - 2 * RrArtifactFilter.MAX_REJECTED)
+            throw new IllegalStateException("Step from " + from + " to " + to
+                    + " ms not followed, " + normal + " of 59 beats normal");
+    }
+
+    @Benchmark
+    public long addBeat() {
+        filter.add(intervals[position++ & (intervals.length - 1)]);
+        return sum;
+    }
+}
@@ -0,0 +1,61 @@
+package com.sample.hrv.analysis;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-beat cost of {@link TimeDomainHrv}. The cost must not depend on the window size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeDomainHrvBenchmark {
+
+    @Param({"60", "300", "3600"})
+    public int windowSeconds;
+
+    private final int[] intervals = new int[4096];
+    private int position;
+
+    private TimeDomainHrv hrv;
+    private final HrvSnapshot snapshot = new HrvSnapshot();
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = 800 + (int) (random.nextGaussian() * 60);
+        }
+        hrv = new TimeDomainHrv(windowSeconds * 4, windowSeconds * 1000L);
+        for (int i = 0; i < windowSeconds * 4; i++) {
+            addBeat();
+        }
+    }
+
+    @Benchmark
+    public void addBeat() {
+        hrv.add(intervals[position++ & (intervals.length - 1)]);
+    }
+
+    @Benchmark
+    public double addBeatAndSnapshot() {
+        addBeat();
+        hrv.snapshot(snapshot);
+        return snapshot.getRmssd();
+    }
+}
@@ -0,0 +1,45 @@
+package com.sample.hrv.demo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of handing beats to the renderer while it reads them on another thread, far
+ * more often than a sensor or a display would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class BeatExchangeBenchmark {
+
+    private final BeatExchange beats = new BeatExchange();
+    // Owned by the writer thread.
+    private long time;
+
+    @Benchmark
+    @Group("handoff")
+    public void publish() {
+        time++;
+        beats.publish(time, 72, 820);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    public long latest() {
+        final BeatExchange.Beat beat = beats.latest();
+        return beat.getSequence() + beat.getTimeMillis();
+    }
+}
@@ -0,0 +1,67 @@
+package com.sample.hrv.event;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of publishing one heart rate measurement, an RR interval and the heart rate, to
+ * a subscriber run on the publishing thread and one drained later, like the UI.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SensorEventBusBenchmark {
+
+    private final SensorEventBus bus = new SensorEventBus();
+    private long sum;
+    private long time;
+    private Runnable pending;
+
+    private final SensorEventBus.Subscriber subscriber = new SensorEventBus.Subscriber() {
+        @Override
+        public void onEvent(SensorEvent event) {
+            sum += event.getValue();
+        }
+    };
+
+    // Holds the drain until the benchmark runs it, like a Handler would.
+    private final Executor deferred = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            pending = command;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        bus.subscribe(subscriber, SensorEventBus.DIRECT, 64);
+        bus.subscribe(subscriber, deferred, 256);
+    }
+
+    @Benchmark
+    public long publishMeasurement() {
+        time++;
+        bus.publish(SensorEvent.TYPE_RR_INTERVAL, time, 820, 0x16);
+        bus.publish(SensorEvent.TYPE_HEART_RATE, time, 72, 0x16);
+        if (pending != null) {
+            final Runnable drain = pending;
+            pending = null;
+            drain.run();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,76 @@
+package com.sample.hrv.sensor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Notification hot path of {@link BleHeartRateSensor}: decoding the 0x2A37 payload,
+ * building {@link HRData} and formatting the text sent with every data broadcast.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeartRateSensorBenchmark {
+
+    @Param({"hr8", "hr8_rr1", "hr8_rr2", "hr16_energy_rr4"})
+    public String payload;
+
+    private byte[] value;
+    private HeartRateMeasurement measurement;
+    private HRData data;
+
+    @Setup
+    public void setUp() {
+        switch (payload) {
+            case "hr8":
+                value = new byte[] { 0x06, 72 };
+                break;
+            case "hr8_rr1":
+                value = new byte[] { 0x16, 72, (byte) 0x35, 0x03 };
+                break;
+            case "hr8_rr2":
+                value = new byte[] { 0x16, 72, (byte) 0x35, 0x03, (byte) 0x41, 0x03 };
+                break;
+            case "hr16_energy_rr4":
+                value = new byte[] { 0x1f, 72, 0x00, 0x10, 0x01,
+                        (byte) 0x35, 0x03, (byte) 0x41, 0x03, (byte) 0x20, 0x03, (byte) 0x30, 0x03 };
+                break;
+            default:
+                throw new IllegalArgumentException(payload);
+        }
+        measurement = new HeartRateMeasurement();
+        measurement.decode(value);
+        data = hrData();
+    }
+
+    @Benchmark
+    public int decode() {
+        measurement.decode(value);
+        return measurement.getRrCount();
+    }
+
+    @Benchmark
+    public HRData hrData() {
+        return new HRData(measurement.getHeartRate(),
+                measurement.getRrCount() > 0 ? measurement.getRrInterval(0) : -1.0f);
+    }
+
+    @Benchmark
+    public String dataString() {
+        return data.toDataString();
+    }
+}
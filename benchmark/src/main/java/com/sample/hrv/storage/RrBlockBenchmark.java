@@ -0,0 +1,70 @@
+package com.sample.hrv.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of encoding and decoding a full RR block, see {@link RrBlockEncoder}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RrBlockBenchmark {
+
+    private static final int RECORDS = SessionFormat.RR_BLOCK_RECORDS;
+
+    private final int[] times = new int[RECORDS];
+    private final int[] intervals = new int[RECORDS];
+
+    private final RrBlockEncoder encoder = new RrBlockEncoder(RECORDS);
+    private final RrBlockDecoder decoder = new RrBlockDecoder();
+    private final ByteBuffer buffer = ByteBuffer.allocate(RrBlockEncoder.maxPayloadSize(RECORDS));
+    private int length;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        int time = 0;
+        for (int i = 0; i < RECORDS; i++) {
+            intervals[i] = 820 + (int) (random.nextGaussian() * 40);
+            time += intervals[i] * 1000 / 1024;
+            times[i] = time;
+        }
+        length = encode();
+    }
+
+    @Benchmark
+    public int encode() {
+        for (int i = 0; i < RECORDS; i++) {
+            encoder.add(times[i], intervals[i]);
+        }
+        buffer.clear();
+        encoder.encode(buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public long decode() {
+        decoder.reset(buffer, 0, length, RECORDS, times[0]);
+        long sum = 0;
+        while (decoder.next()) {
+            sum += decoder.getRr();
+        }
+        return sum;
+    }
+}
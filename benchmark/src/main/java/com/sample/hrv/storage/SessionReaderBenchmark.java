@@ -0,0 +1,91 @@
+package com.sample.hrv.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sample.hrv.sensor.HeartRateMeasurement;
+
+/**
+ * Cost of reading the RR intervals of a 30 s range from a recorded session. The cost
+ * must not depend on the session length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionReaderBenchmark {
+
+    private static final int RANGE_MILLIS = 30000;
+
+    @Param({"1", "8"})
+    public int sessionHours;
+
+    private File file;
+    private SessionReader reader;
+    private final SessionReader.RrCursor cursor = new SessionReader.RrCursor();
+    private final Random random = new Random(42);
+    private int duration;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("session", ".hrv");
+        file.delete();
+        final long startWallMillis = System.currentTimeMillis();
+        final HeartRateMeasurement measurement = new HeartRateMeasurement();
+        final byte[] payload = {0x10, 72, 0, 0};
+        long clock = 0;
+        // An hour of records fits in one batch, so a writer per hour, appending to the
+        // file, never drops any.
+        for (int hour = 1; hour <= sessionHours; hour++) {
+            final SessionWriter writer = new SessionWriter(file, startWallMillis, 0, 1000,
+                    SessionFormat.MAX_FRAME_RECORDS);
+            while (clock < hour * 3600000L) {
+                final int rr = 840 + (int) (random.nextGaussian() * 40);
+                payload[2] = (byte) rr;
+                payload[3] = (byte) (rr >> 8);
+                measurement.decode(payload);
+                clock += rr * 1000 / 1024;
+                writer.measurement(clock, measurement);
+            }
+            writer.close();
+            if (writer.getDroppedRecords() != 0)
+                throw new IllegalStateException(writer.getDroppedRecords() + " records dropped");
+        }
+        duration = (int) clock;
+        reader = new SessionReader(file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public long readRange() {
+        final int from = random.nextInt(duration - RANGE_MILLIS);
+        reader.rr(from, from + RANGE_MILLIS, cursor);
+        long sum = 0;
+        while (cursor.next()) {
+            sum += cursor.getRr();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,59 @@
+package com.sample.hrv.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sample.hrv.sensor.HeartRateMeasurement;
+
+/**
+ * Cost of recording a measurement on the Bluetooth callback thread. The file is written
+ * by the background thread of the {@link SessionWriter} and must not show up here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionWriterBenchmark {
+
+    // Flags 0x16: 8 bit heart rate, contact detected, two RR intervals.
+    private static final byte[] PAYLOAD = {0x16, 72, 0x20, 0x03, 0x40, 0x03};
+
+    private final HeartRateMeasurement measurement = new HeartRateMeasurement();
+    private File file;
+    private SessionWriter writer;
+    private long clock;
+
+    @Setup
+    public void setUp() throws IOException {
+        measurement.decode(PAYLOAD);
+        file = File.createTempFile("session", ".hrv");
+        file.delete();
+        writer = new SessionWriter(file, System.currentTimeMillis(), 0, 100, 4096);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        writer.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void measurement() {
+        writer.measurement(clock++, measurement);
+    }
+}